@@ -0,0 +1,45 @@
+package net.earthcomputer.musicalcode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompareClassesBenchmark {
+    @Param({"10", "100", "500"})
+    private int methods;
+
+    private ClassNode from;
+    private ClassNode to;
+    private MemberPattern memberPattern;
+
+    @Setup
+    public void setup() {
+        String name = SyntheticClasses.className(1);
+        from = SyntheticClasses.readClass(SyntheticClasses.generateClass(name, 8, methods, 200, 1, 0));
+        to = SyntheticClasses.readClass(SyntheticClasses.generateClass(name, 8, methods, 200, 1, 1));
+        memberPattern = MemberPattern.all();
+    }
+
+    @Benchmark
+    public void compareClasses(Blackhole blackhole) {
+        JarComparer.compareClasses(from, to, memberPattern, blackhole::consume);
+    }
+}
@@ -0,0 +1,85 @@
+package net.earthcomputer.musicalcode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompareJarsBenchmark {
+    private static final int CLASSES = 2000;
+    private static final int METHODS = 20;
+
+    @Param({"1", "4"})
+    private int threads;
+
+    private File tempDir;
+    private MappedJar fromJar;
+    private MappedJar toJar;
+    private List<String> config;
+    private Remapper remapper;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("musical-code-bench").toFile();
+        File from = new File(tempDir, "from.jar");
+        File to = new File(tempDir, "to.jar");
+        SyntheticClasses.writeJar(from, CLASSES, METHODS, 100, 0);
+        SyntheticClasses.writeJar(to, CLASSES, METHODS, 100, 1);
+        fromJar = MappedJar.open(from);
+        toJar = MappedJar.open(to);
+        config = SyntheticClasses.generateConfig(1000, CLASSES, METHODS);
+        remapper = new Remapper() {};
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fromJar.close();
+        toJar.close();
+        File[] files = tempDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(tempDir.toPath());
+    }
+
+    @Benchmark
+    public JarComparer.Stats compare(Blackhole blackhole) {
+        // patterns remember which of their children were used, so each comparison needs a fresh one
+        MemberPattern memberPattern = MemberPattern.parse(config, remapper, remapper);
+        JarComparer.Stats stats = JarComparer.findChanges(fromJar, null, toJar, null, Collections.singletonList(memberPattern), threads, null,
+                Collections.singletonList(change -> blackhole.consume(change.describe(remapper))));
+        memberPattern.assertUsed(blackhole::consume);
+        return stats;
+    }
+
+    @Benchmark
+    public JarComparer.Stats compareAll(Blackhole blackhole) {
+        return JarComparer.findAllChanges(fromJar, toJar, threads, change -> blackhole.consume(change.describe(remapper)));
+    }
+}
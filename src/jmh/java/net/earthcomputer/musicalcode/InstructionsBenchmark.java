@@ -0,0 +1,49 @@
+package net.earthcomputer.musicalcode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.objectweb.asm.tree.InsnList;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstructionsBenchmark {
+    @Param({"100", "1000", "10000"})
+    private int instructions;
+
+    private InsnList from;
+    private InsnList same;
+    private InsnList changed;
+
+    @Setup
+    public void setup() {
+        // method0 changes between revisions, and each parse has its own label nodes like in a real comparison
+        from = SyntheticClasses.readClass(SyntheticClasses.generateClass("Bench", 1, 1, instructions, 0, 0)).methods.get(0).instructions;
+        same = SyntheticClasses.readClass(SyntheticClasses.generateClass("Bench", 1, 1, instructions, 0, 0)).methods.get(0).instructions;
+        changed = SyntheticClasses.readClass(SyntheticClasses.generateClass("Bench", 1, 1, instructions, 0, 1)).methods.get(0).instructions;
+    }
+
+    @Benchmark
+    public boolean unchanged() {
+        return JarComparer.haveInstructionsChanged(from, same);
+    }
+
+    @Benchmark
+    public boolean changed() {
+        return JarComparer.haveInstructionsChanged(from, changed);
+    }
+}
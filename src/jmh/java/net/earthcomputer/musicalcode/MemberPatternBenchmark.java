@@ -0,0 +1,84 @@
+package net.earthcomputer.musicalcode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.objectweb.asm.commons.Remapper;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemberPatternBenchmark {
+    private static final int CLASSES = 5000;
+    private static final int METHODS = 50;
+    private static final int QUERIES = 1024;
+
+    @Param({"10", "1000", "100000"})
+    private int configLines;
+
+    private List<String> config;
+    private Remapper remapper;
+    private MemberPattern memberPattern;
+    private String[] queryClasses;
+    private String[] queryMethods;
+    private String[] queryFields;
+
+    @Setup
+    public void setup() {
+        config = SyntheticClasses.generateConfig(configLines, CLASSES, METHODS);
+        remapper = new Remapper() {};
+        memberPattern = MemberPattern.parse(config, remapper, remapper);
+        queryClasses = new String[QUERIES];
+        queryMethods = new String[QUERIES];
+        queryFields = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queryClasses[i] = SyntheticClasses.className((i * 7919) % CLASSES);
+            queryMethods[i] = "method" + (i % METHODS);
+            queryFields[i] = "field" + (i & 7);
+        }
+    }
+
+    @Benchmark
+    public MemberPattern parse() {
+        return MemberPattern.parse(config, remapper, remapper);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int matchMethods() {
+        int matches = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            if (memberPattern.matchesMethod(queryClasses[i], queryMethods[i], "(I)I")) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int matchFields() {
+        int matches = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            if (memberPattern.matchesField(queryClasses[i], queryFields[i], "I")) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,177 @@
+package net.earthcomputer.musicalcode;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates class files for the benchmarks, so they can run without any Minecraft jars. The same seed always gives the
+ * same classes, and a non-zero revision changes the constants in some of the methods.
+ */
+final class SyntheticClasses {
+    static final String PACKAGE = "net/minecraft/synthetic/";
+
+    private SyntheticClasses() {
+    }
+
+    static String className(int index) {
+        return PACKAGE + (index % 2 == 0 ? "Block" : "Entity") + index;
+    }
+
+    static byte[] generateClass(String name, int fieldCount, int methodCount, int instructionsPerMethod, long seed, int revision) {
+        Random rand = new Random(seed);
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        writer.visitSource(name.substring(name.lastIndexOf('/') + 1) + ".java", null);
+
+        for (int i = 0; i < fieldCount; i++) {
+            writer.visitField(Opcodes.ACC_PRIVATE, "field" + i, i % 2 == 0 ? "I" : "Ljava/lang/String;", null, null).visitEnd();
+        }
+
+        for (int i = 0; i < methodCount; i++) {
+            MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "method" + i, "(I)I", null, null);
+            method.visitCode();
+            // only some methods change between revisions, like a real update
+            int methodRevision = i % 8 == 0 ? revision : 0;
+            generateCode(method, name, rand, instructionsPerMethod, methodRevision);
+            method.visitMaxs(4, 3);
+            method.visitEnd();
+        }
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static void generateCode(MethodVisitor method, String owner, Random rand, int instructionCount, int revision) {
+        int line = 10;
+        int emitted = 0;
+        while (emitted < instructionCount) {
+            Label lineLabel = new Label();
+            method.visitLabel(lineLabel);
+            method.visitLineNumber(line++, lineLabel);
+            switch (rand.nextInt(5)) {
+                case 0:
+                    method.visitVarInsn(Opcodes.ILOAD, 1);
+                    method.visitLdcInsn(rand.nextInt() + revision);
+                    method.visitInsn(Opcodes.IADD);
+                    method.visitVarInsn(Opcodes.ISTORE, 1);
+                    emitted += 4;
+                    break;
+                case 1: {
+                    Label skip = new Label();
+                    method.visitVarInsn(Opcodes.ILOAD, 1);
+                    method.visitJumpInsn(Opcodes.IFEQ, skip);
+                    method.visitIincInsn(1, rand.nextInt(100));
+                    method.visitLabel(skip);
+                    emitted += 3;
+                    break;
+                }
+                case 2:
+                    method.visitVarInsn(Opcodes.ALOAD, 0);
+                    method.visitFieldInsn(Opcodes.GETFIELD, owner, "field0", "I");
+                    method.visitVarInsn(Opcodes.ILOAD, 1);
+                    method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "max", "(II)I", false);
+                    method.visitVarInsn(Opcodes.ISTORE, 1);
+                    emitted += 5;
+                    break;
+                case 3: {
+                    Label end = new Label();
+                    Label[] cases = new Label[4];
+                    for (int i = 0; i < cases.length; i++) {
+                        cases[i] = new Label();
+                    }
+                    method.visitVarInsn(Opcodes.ILOAD, 1);
+                    method.visitTableSwitchInsn(0, cases.length - 1, end, cases);
+                    for (Label label : cases) {
+                        method.visitLabel(label);
+                        method.visitIincInsn(2, rand.nextInt(10));
+                        method.visitJumpInsn(Opcodes.GOTO, end);
+                    }
+                    method.visitLabel(end);
+                    emitted += 2 + cases.length * 2;
+                    break;
+                }
+                default:
+                    method.visitLdcInsn("string" + rand.nextInt(1000));
+                    method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+                    method.visitVarInsn(Opcodes.ISTORE, 2);
+                    emitted += 3;
+                    break;
+            }
+        }
+        method.visitVarInsn(Opcodes.ILOAD, 1);
+        method.visitInsn(Opcodes.IRETURN);
+    }
+
+    static ClassNode readClass(byte[] bytes) {
+        ClassNode node = new ClassNode();
+        new ClassReader(bytes).accept(node, ClassReader.SKIP_FRAMES);
+        return node;
+    }
+
+    /**
+     * Writes a jar of {@code classCount} classes, stored uncompressed like the intermediary jars we cache.
+     */
+    static void writeJar(File file, int classCount, int methodsPerClass, int instructionsPerMethod, int revision) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (int i = 0; i < classCount; i++) {
+                String name = className(i);
+                // every fourth class is unchanged between revisions, so the fast path gets exercised too
+                byte[] bytes = generateClass(name, 8, methodsPerClass, instructionsPerMethod, i, i % 4 == 0 ? 0 : revision);
+                ZipEntry entry = new ZipEntry(name + ".class");
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(bytes.length);
+                entry.setCompressedSize(bytes.length);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                entry.setCrc(crc.getValue());
+                out.putNextEntry(entry);
+                out.write(bytes);
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Generates a config of the given number of lines, mixing whole classes, fields, methods and wildcards.
+     */
+    static List<String> generateConfig(int lineCount, int classCount, int methodsPerClass) {
+        Random rand = new Random(lineCount);
+        List<String> lines = new ArrayList<>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            String className = className(rand.nextInt(classCount));
+            switch (i % 10) {
+                case 0:
+                    lines.add(className + ".*");
+                    break;
+                case 1:
+                    lines.add(className + ".field" + rand.nextInt(8) + " : I");
+                    break;
+                case 2:
+                    lines.add(className + ".method" + rand.nextInt(methodsPerClass) + "* (*)I");
+                    break;
+                case 3:
+                    lines.add(PACKAGE + "Entity" + rand.nextInt(10) + "*.method" + rand.nextInt(methodsPerClass) + " (I)I");
+                    break;
+                default:
+                    lines.add(className + ".method" + rand.nextInt(methodsPerClass) + " (I)I   # comment");
+                    break;
+            }
+        }
+        return lines;
+    }
+}
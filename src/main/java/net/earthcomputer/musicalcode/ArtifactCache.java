@@ -0,0 +1,189 @@
+package net.earthcomputer.musicalcode;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A content-addressed store for the large files in the cache directory. Each artifact lives in its own directory named
+ * after its hash, along with anything cached next to it such as its fingerprint index. Downloads are named by the SHA-1
+ * of their content, and derived artifacts by a {@link #key key} over the hashes of their inputs, so a changed input
+ * simply names a different artifact.
+ *
+ * <p>The modification time of an artifact's directory is the last time it was used. When the store grows past its
+ * size limit, the least recently used artifacts are deleted, except for those used during this run and those a daemon
+ * holds open.</p>
+ */
+public class ArtifactCache {
+    // Guava discourages SHA-1 for security, but it's what Mojang publishes
+    @SuppressWarnings("deprecation")
+    static final HashFunction SHA1 = Hashing.sha1();
+
+    private final File dir;
+    private final long maxBytes;
+    private final Set<String> used = ConcurrentHashMap.newKeySet();
+    private final Predicate<File> held;
+    private final Predicate<File> mapped;
+
+    /**
+     * @param maxBytes the size to evict down to, or 0 to keep everything
+     */
+    public ArtifactCache(File cacheDir, long maxBytes) {
+        this(cacheDir, maxBytes, artifactDir -> false, artifact -> false);
+    }
+
+    /**
+     * @param held whether an artifact's directory is still in use by a daemon, and so mustn't be evicted
+     * @param mapped whether an artifact may still be memory-mapped, and so can't be replaced
+     */
+    public ArtifactCache(File cacheDir, long maxBytes, Predicate<File> held, Predicate<File> mapped) {
+        this.dir = new File(cacheDir, "artifacts");
+        this.maxBytes = maxBytes;
+        this.held = held;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Returns the file of an artifact, whether or not it exists yet, and marks it as used.
+     */
+    public File getFile(String hash, String name) {
+        File artifactDir = new File(dir, hash);
+        if (used.add(hash) && artifactDir.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            artifactDir.setLastModified(System.currentTimeMillis());
+        }
+        return new File(artifactDir, name);
+    }
+
+    /**
+     * Returns whether an artifact may still be memory-mapped. A mapping outlives closing its channel until it is
+     * garbage collected, and on Windows a mapped file can't be replaced. It needn't be either, as it was read
+     * successfully and its key covers everything it was built from.
+     */
+    public boolean isMapped(File artifact) {
+        return mapped.test(artifact);
+    }
+
+    /**
+     * Returns a temporary file to build an artifact in, which {@link #commit} then moves into place. An artifact is
+     * never seen half-written, even if building it is interrupted.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public File getTempFile(File artifact) {
+        artifact.getParentFile().mkdirs();
+        // a unique name, so that two runs building the same artifact at once don't write over each other
+        try {
+            return Files.createTempFile(artifact.getParentFile().toPath(), "tmp-", "-" + artifact.getName()).toFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create a temporary file for " + artifact, e);
+        }
+    }
+
+    public void commit(File tempFile, File artifact) {
+        try {
+            Files.move(tempFile.toPath(), artifact.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to move " + tempFile + " to " + artifact, e);
+        }
+    }
+
+    /**
+     * Returns the key of a derived artifact, a SHA-1 over the kind of artifact and the hashes and parameters it was
+     * built from.
+     */
+    public static String key(String... parts) {
+        Hasher hasher = SHA1.newHasher();
+        for (String part : parts) {
+            hasher.putString(part, StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        return hasher.hash().toString();
+    }
+
+    public static String sha1(File file) {
+        try {
+            return com.google.common.io.Files.asByteSource(file).hash(SHA1).toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to hash " + file, e);
+        }
+    }
+
+    /**
+     * Deletes the least recently used artifacts until the store fits in its size limit.
+     */
+    public void evict(Consumer<String> log) {
+        File[] artifactDirs = dir.listFiles(File::isDirectory);
+        if (maxBytes <= 0 || artifactDirs == null) {
+            return;
+        }
+        List<Artifact> artifacts = new ArrayList<>();
+        long totalBytes = 0;
+        for (File artifactDir : artifactDirs) {
+            Artifact artifact = new Artifact(artifactDir);
+            artifacts.add(artifact);
+            totalBytes += artifact.bytes;
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+
+        artifacts.sort(Comparator.comparingLong(artifact -> artifact.lastUsed));
+        int evicted = 0;
+        long evictedBytes = 0;
+        for (Artifact artifact : artifacts) {
+            if (totalBytes - evictedBytes <= maxBytes) {
+                break;
+            }
+            if (used.contains(artifact.dir.getName()) || held.test(artifact.dir)) {
+                continue;
+            }
+            if (deleteRecursively(artifact.dir)) {
+                evicted++;
+                evictedBytes += artifact.bytes;
+            }
+        }
+        log.accept("Evicted " + evicted + " artifacts (" + evictedBytes / (1024 * 1024) + " MB) from the cache");
+    }
+
+    private static boolean deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        return file.delete();
+    }
+
+    private static class Artifact {
+        private final File dir;
+        private final long lastUsed;
+        private final long bytes;
+
+        private Artifact(File dir) {
+            this.dir = dir;
+            this.lastUsed = dir.lastModified();
+            long bytes = 0;
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    bytes += file.length();
+                }
+            }
+            this.bytes = bytes;
+        }
+    }
+}
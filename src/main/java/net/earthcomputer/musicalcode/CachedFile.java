@@ -0,0 +1,34 @@
+package net.earthcomputer.musicalcode;
+
+import java.io.File;
+
+/**
+ * A file in the cache directory, along with whether it changed during this run and a hash which identifies its
+ * content. Artifacts derived from the file are keyed by this hash.
+ */
+public class CachedFile {
+    private final File file;
+    private final boolean changed;
+    private final String hash;
+
+    public CachedFile(File file, boolean changed, String hash) {
+        this.file = file;
+        this.changed = changed;
+        this.hash = hash;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * The SHA-1 of a downloaded file, or the {@link ArtifactCache#key key} of a derived one.
+     */
+    public String getHash() {
+        return hash;
+    }
+}
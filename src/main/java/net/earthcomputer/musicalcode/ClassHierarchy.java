@@ -0,0 +1,48 @@
+package net.earthcomputer.musicalcode;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The direct supertypes of the classes in a jar, read from the class headers as they are needed.
+ */
+public class ClassHierarchy {
+    private final MappedJar jar;
+    private final Map<String, List<String>> supertypes = new ConcurrentHashMap<>();
+
+    public ClassHierarchy(MappedJar jar) {
+        this.jar = jar;
+    }
+
+    /**
+     * Returns the superclass and interfaces of the given class, or an empty list if the class isn't in the jar.
+     */
+    public List<String> getSupertypes(String className) {
+        return supertypes.computeIfAbsent(className, k -> {
+            MappedJar.Entry entry = jar.getEntry(k + ".class");
+            if (entry == null) {
+                return Collections.emptyList();
+            }
+            ClassReader reader;
+            try {
+                reader = new ClassReader(jar.getBytes(entry));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            String[] interfaces = reader.getInterfaces();
+            List<String> result = new ArrayList<>(interfaces.length + 1);
+            if (reader.getSuperName() != null) {
+                result.add(reader.getSuperName());
+            }
+            Collections.addAll(result, interfaces);
+            return result;
+        });
+    }
+}
@@ -0,0 +1,127 @@
+package net.earthcomputer.musicalcode;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Works out which of the merged classes need remapping for a config, so that selective mode doesn't have to remap
+ * the whole of Minecraft. These are the classes the config watches, plus the hierarchy needed to resolve their members
+ * in the remapped jar: every class they reference, and every supertype of those.
+ */
+public final class ClassSelector {
+    private static final int CONSTANT_CLASS = 7;
+
+    private ClassSelector() {
+    }
+
+    /**
+     * Returns the official names of the classes to remap, sorted.
+     *
+     * @param classes the merged classes, by their official names
+     * @param yarnMappings the yarn mappings if the config uses yarn names, otherwise null
+     */
+    public static Set<String> select(File config, Map<String, byte[]> classes, File intermediaryMappings, MappingTable yarnMappings, Consumer<String> log) {
+        log.accept("Selecting classes...");
+        Map<String, String> officialToIntermediary = TinyMappings.readClassNames(intermediaryMappings, "official", "intermediary");
+        Map<String, String> intermediaryToOfficial = invert(officialToIntermediary);
+        Map<String, String> intermediaryToYarn = yarnMappings == null ? new HashMap<>() : yarnMappings.getClassNames("intermediary", "named");
+        Map<String, String> yarnToIntermediary = invert(intermediaryToYarn);
+
+        // only the class names matter here, so the config is parsed without any member mappings
+        MemberPattern memberPattern = MemberPattern.parse(config, classRemapper(yarnToIntermediary), classRemapper(intermediaryToYarn));
+
+        List<String> jarClasses = new ArrayList<>();
+        for (String name : classes.keySet()) {
+            jarClasses.add(officialToIntermediary.getOrDefault(name, name));
+        }
+        Collection<String> watchedClasses = memberPattern.getClasses(jarClasses);
+
+        Set<String> selected = new TreeSet<>();
+        Deque<String> supertypeQueue = new ArrayDeque<>();
+        for (String watchedClass : watchedClasses) {
+            String officialName = intermediaryToOfficial.getOrDefault(watchedClass, watchedClass);
+            ClassReader reader = readClass(classes, officialName);
+            if (reader == null) {
+                continue;
+            }
+            selected.add(officialName);
+            supertypeQueue.add(officialName);
+            char[] buffer = new char[reader.getMaxStringLength()];
+            for (int i = 1; i < reader.getItemCount(); i++) {
+                int offset = reader.getItem(i);
+                // the offset points just past the tag, and the second slot of a long or double has no offset
+                if (offset != 0 && reader.readByte(offset - 1) == CONSTANT_CLASS) {
+                    String referencedClass = getElementClass(reader.readUTF8(offset, buffer));
+                    if (referencedClass != null && classes.containsKey(referencedClass) && selected.add(referencedClass)) {
+                        supertypeQueue.add(referencedClass);
+                    }
+                }
+            }
+        }
+
+        while (!supertypeQueue.isEmpty()) {
+            ClassReader reader = readClass(classes, supertypeQueue.remove());
+            if (reader == null) {
+                continue;
+            }
+            addSupertype(classes, reader.getSuperName(), selected, supertypeQueue);
+            for (String itf : reader.getInterfaces()) {
+                addSupertype(classes, itf, selected, supertypeQueue);
+            }
+        }
+
+        log.accept("Selected " + selected.size() + " of " + classes.size() + " classes");
+        return selected;
+    }
+
+    private static void addSupertype(Map<String, byte[]> classes, String name, Set<String> selected, Deque<String> queue) {
+        if (name != null && classes.containsKey(name) && selected.add(name)) {
+            queue.add(name);
+        }
+    }
+
+    private static ClassReader readClass(Map<String, byte[]> classes, String name) {
+        byte[] bytes = classes.get(name);
+        return bytes == null ? null : new ClassReader(bytes);
+    }
+
+    private static String getElementClass(String name) {
+        if (name.isEmpty() || name.charAt(0) != '[') {
+            return name;
+        }
+        int start = name.lastIndexOf('[') + 1;
+        if (name.charAt(start) != 'L') {
+            return null;
+        }
+        return name.substring(start + 1, name.length() - 1);
+    }
+
+    private static Map<String, String> invert(Map<String, String> map) {
+        Map<String, String> inverted = new HashMap<>(map.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            inverted.put(entry.getValue(), entry.getKey());
+        }
+        return inverted;
+    }
+
+    private static Remapper classRemapper(Map<String, String> classNames) {
+        return new Remapper() {
+            @Override
+            public String map(String internalName) {
+                return classNames.getOrDefault(internalName, internalName);
+            }
+        };
+    }
+}
@@ -0,0 +1,234 @@
+package net.earthcomputer.musicalcode;
+
+import com.google.common.hash.HashCode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps MusicalCode running between comparisons, so that what one comparison loads can be reused by the next: the
+ * prepared versions with their remappers, the yarn mappings, open jars and fingerprint indexes. Other runs started with
+ * {@code --useDaemon} send their arguments and working directory over a local socket, and get their output back.
+ *
+ * <p>Requests are run one at a time. Each cache holds a fixed number of entries, and evicts the least recently
+ * used.</p>
+ *
+ * <p>Any local user can connect to the port, so each request starts with a random token which the daemon writes to a
+ * file in its cache directory that only its own user can read. A client therefore has to use the same cache
+ * directory as the daemon.</p>
+ */
+public class Daemon {
+    public static final int DEFAULT_PORT = 25573;
+
+    private static final byte OUTPUT = 'O';
+    private static final byte ERROR = 'E';
+    private static final byte DONE = 'D';
+    private static final byte FAILED = 'F';
+
+    final LruCache<String, MusicalCode.PreparedVersions> preparedVersions;
+    final LruCache<String, MappingTable> yarnMappings;
+    final LruCache<File, MappedJar> jars;
+    final LruCache<File, FingerprintIndex> fingerprintIndexes;
+    private final Set<File> mappedJars = ConcurrentHashMap.newKeySet();
+
+    private Daemon(int cacheEntries) {
+        // a comparison uses two of most things at once
+        cacheEntries = Math.max(2, cacheEntries);
+        this.preparedVersions = new LruCache<>(cacheEntries);
+        this.yarnMappings = new LruCache<>(cacheEntries);
+        this.jars = new LruCache<>(cacheEntries);
+        this.fingerprintIndexes = new LruCache<>(cacheEntries);
+    }
+
+    /**
+     * Returns an artifact cache for a run, which doesn't evict the jars the daemon holds, nor replace any jar the daemon
+     * has mapped. Once the caches here evict a jar, it can be evicted from disk again.
+     */
+    ArtifactCache getArtifactCache(File cacheDir, long maxBytes) {
+        return new ArtifactCache(cacheDir, maxBytes, this::isHeld, mappedJars::contains);
+    }
+
+    /**
+     * Records that a jar was memory-mapped. Its mapping may outlive the jar being closed, so this is never undone.
+     */
+    void markMapped(File jar) {
+        mappedJars.add(jar);
+    }
+
+    private boolean isHeld(File artifactDir) {
+        for (File jar : jars.keys()) {
+            if (jar.getParentFile().equals(artifactDir)) {
+                return true;
+            }
+        }
+        // prepared versions open their jars again in later runs, and keep the from jar open for the yarn remappers
+        for (MusicalCode.PreparedVersions prepared : preparedVersions.values()) {
+            for (File jar : prepared.getJars()) {
+                if (jar.getParentFile().equals(artifactDir)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static void serve(int port, int cacheEntries, File cacheDir) {
+        Daemon daemon = new Daemon(cacheEntries);
+        byte[] token = writeToken(getTokenFile(cacheDir, port));
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println("MusicalCode daemon listening on port " + port);
+            while (true) {
+                try (Socket socket = server.accept()) {
+                    daemon.handle(socket, token);
+                } catch (IOException | UncheckedIOException e) {
+                    System.err.println("Lost connection to a client: " + e);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to listen on port " + port, e);
+        }
+    }
+
+    private static File getTokenFile(File cacheDir, int port) {
+        return new File(cacheDir, "daemon-" + port + ".token");
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static byte[] writeToken(File tokenFile) {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        byte[] token = HashCode.fromBytes(random).toString().getBytes(StandardCharsets.UTF_8);
+        tokenFile.getParentFile().mkdirs();
+        try {
+            // a temporary file is only readable by its owner on POSIX file systems. Elsewhere, take the permissions
+            // away from everyone else before the token is written, then move it into place
+            Path tempFile = Files.createTempFile(tokenFile.getParentFile().toPath(), "tmp-", "-" + tokenFile.getName());
+            File file = tempFile.toFile();
+            file.setReadable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(false, false);
+            file.setWritable(true, true);
+            Files.write(tempFile, token);
+            Files.move(tempFile, tokenFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write the daemon token to " + tokenFile, e);
+        }
+        return token;
+    }
+
+    private void handle(Socket socket, byte[] token) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        byte[] clientToken = in.readUTF().getBytes(StandardCharsets.UTF_8);
+        if (!MessageDigest.isEqual(token, clientToken)) {
+            System.err.println("Rejected a client with the wrong token");
+            send(out, FAILED, "Wrong daemon token, is the daemon using a different cache directory?");
+            out.flush();
+            return;
+        }
+        File workingDir = new File(in.readUTF());
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+
+        System.out.println("Running " + String.join(" ", args));
+        try {
+            MusicalCode.run(args, this, workingDir, line -> send(out, OUTPUT, line), line -> send(out, ERROR, line));
+            send(out, DONE, "");
+        } catch (Throwable e) {
+            // the client waits until it hears back, whatever went wrong
+            e.printStackTrace();
+            send(out, FAILED, String.valueOf(e));
+        }
+        out.flush();
+    }
+
+    private static void send(DataOutputStream out, byte type, String line) {
+        // the comparison may report from several threads
+        synchronized (out) {
+            try {
+                out.writeByte(type);
+                out.writeUTF(line);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs a comparison on the daemon listening on the given port, printing its output here. Returns false if no
+     * daemon is listening, or none was started with the given cache directory.
+     */
+    public static boolean forward(int port, File cacheDir, String[] args) {
+        File tokenFile = getTokenFile(cacheDir, port);
+        String token;
+        try {
+            token = new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the daemon token from " + tokenFile, e);
+        }
+
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        } catch (ConnectException e) {
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to connect to the daemon on port " + port, e);
+        }
+
+        try (Socket s = socket) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            out.writeUTF(token);
+            out.writeUTF(new File("").getAbsolutePath());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            while (true) {
+                byte type = in.readByte();
+                String line = in.readUTF();
+                switch (type) {
+                    case OUTPUT:
+                        System.out.println(line);
+                        break;
+                    case ERROR:
+                        System.err.println(line);
+                        break;
+                    case DONE:
+                        return true;
+                    case FAILED:
+                        throw new RuntimeException("The daemon failed: " + line);
+                    default:
+                        throw new IOException("Unexpected response from the daemon: " + type);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lost connection to the daemon on port " + port, e);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package net.earthcomputer.musicalcode;
+
+import com.google.common.hash.HashingInputStream;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Downloads files into the cache directory on a pool of threads. Files are only downloaded again if the server says
+ * they have changed, and each {@link CachedFile} says whether its file changed. Files with a published SHA-1 go into
+ * the {@link ArtifactCache} instead, and are checked against it.
+ *
+ * <p>Every connection is read to the end and closed, even on a 304 or an error, so that {@link HttpURLConnection} can
+ * reuse it for the next download from the same host.</p>
+ */
+public class Downloader implements Closeable {
+    private final File cacheDir;
+    private final ArtifactCache artifacts;
+    private final boolean refreshCache;
+    private final String mirror;
+    private final Metrics metrics;
+    private final Consumer<String> log;
+    private final ExecutorService executor;
+
+    /**
+     * @param mirror if not null, every URL is fetched from {@code mirror + host + path} instead, for example from a
+     *               local server standing in for the real hosts
+     */
+    public Downloader(File cacheDir, ArtifactCache artifacts, boolean refreshCache, int threads, String mirror, Metrics metrics, Consumer<String> log) {
+        this.cacheDir = cacheDir;
+        this.artifacts = artifacts;
+        this.refreshCache = refreshCache;
+        this.mirror = mirror == null || mirror.endsWith("/") ? mirror : mirror + "/";
+        this.metrics = metrics;
+        this.log = log;
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "MusicalCode download " + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<CachedFile> downloadAsync(String url, String dest) {
+        return CompletableFuture.supplyAsync(() -> download(url, dest), executor);
+    }
+
+    public CompletableFuture<CachedFile> downloadVerifiedAsync(String url, String sha1, String name) {
+        return CompletableFuture.supplyAsync(() -> downloadVerified(url, sha1, name), executor);
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public CachedFile download(String urlString, String dest) {
+        URL url = toUrl(urlString);
+        log.accept("Downloading " + dest + "...");
+
+        File destFile = new File(cacheDir, dest);
+        File etagFile = new File(cacheDir, dest + ".etag");
+
+        try (Metrics.Phase phase = metrics.start("download")) {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            if (!refreshCache && destFile.exists() && etagFile.exists()) {
+                String etag = com.google.common.io.Files.asCharSource(etagFile, StandardCharsets.UTF_8).read();
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+
+            connection.connect();
+
+            int responseCode = connection.getResponseCode();
+            if ((responseCode < 200 || responseCode > 299) && responseCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                drain(connection.getErrorStream());
+                throw new IOException("Got HTTP " + responseCode + " from " + url);
+            }
+
+            long lastModified = connection.getHeaderFieldDate("Last-Modified", -1);
+            if (destFile.exists() && (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED || lastModified > 0 && destFile.lastModified() >= lastModified)) {
+                drain(connection.getInputStream());
+                return new CachedFile(destFile, false, ArtifactCache.sha1(destFile));
+            }
+
+            destFile.getParentFile().mkdirs();
+            // download to a temporary file so a concurrent or interrupted download never leaves a partial file behind.
+            // Its name is unique, so that two runs downloading the same file at once don't write over each other
+            File tempFile = Files.createTempFile(destFile.getParentFile().toPath(), "tmp-", "-" + destFile.getName()).toFile();
+            try (InputStream in = connection.getInputStream()) {
+                long bytes = Files.copy(in, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                phase.addBytesRead(bytes);
+                phase.addBytesWritten(bytes);
+                Files.move(tempFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                tempFile.delete();
+                destFile.delete();
+                throw e;
+            }
+
+            if (lastModified > 0)
+                destFile.setLastModified(lastModified);
+
+            String etag = connection.getHeaderField("ETag");
+            if (etag != null) {
+                com.google.common.io.Files.asCharSink(etagFile, StandardCharsets.UTF_8).write(etag);
+            }
+            return new CachedFile(destFile, true, ArtifactCache.sha1(destFile));
+        } catch (UnknownHostException e) {
+            if (destFile.exists()) {
+                return new CachedFile(destFile, false, ArtifactCache.sha1(destFile));
+            }
+            throw new UncheckedIOException("Error downloading file " + dest + " from " + url, e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error downloading file " + dest + " from " + url, e);
+        }
+    }
+
+    /**
+     * Downloads a file with a known SHA-1 into the artifact cache. Once it is there it is never downloaded again unless
+     * the cache is being refreshed, and a download which doesn't match the SHA-1 is an error.
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public CachedFile downloadVerified(String urlString, String sha1, String name) {
+        File destFile = artifacts.getFile(sha1, name);
+        if (!refreshCache && destFile.exists()) {
+            return new CachedFile(destFile, false, sha1);
+        }
+        URL url = toUrl(urlString);
+        log.accept("Downloading " + name + "...");
+
+        File tempFile = artifacts.getTempFile(destFile);
+        try (Metrics.Phase phase = metrics.start("download")) {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.connect();
+            int responseCode = connection.getResponseCode();
+            if (responseCode < 200 || responseCode > 299) {
+                drain(connection.getErrorStream());
+                throw new IOException("Got HTTP " + responseCode + " from " + url);
+            }
+
+            String actualSha1;
+            try (HashingInputStream in = new HashingInputStream(ArtifactCache.SHA1, connection.getInputStream())) {
+                long bytes = Files.copy(in, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                phase.addBytesRead(bytes);
+                phase.addBytesWritten(bytes);
+                actualSha1 = in.hash().toString();
+            }
+            if (!actualSha1.equalsIgnoreCase(sha1)) {
+                throw new IOException("Checksum mismatch, expected SHA-1 " + sha1 + " but got " + actualSha1);
+            }
+            artifacts.commit(tempFile, destFile);
+            return new CachedFile(destFile, true, sha1);
+        } catch (IOException e) {
+            tempFile.delete();
+            throw new UncheckedIOException("Error downloading file " + name + " from " + url, e);
+        }
+    }
+
+    private URL toUrl(String url) {
+        try {
+            return new URL(rewriteUrl(url));
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String rewriteUrl(String url) {
+        if (mirror == null) {
+            return url;
+        }
+        int schemeEnd = url.indexOf("://");
+        return mirror + (schemeEnd == -1 ? url : url.substring(schemeEnd + 3));
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try (InputStream stream = in) {
+            byte[] buffer = new byte[8192];
+            //noinspection StatementWithEmptyBody
+            while (stream.read(buffer) != -1) {
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
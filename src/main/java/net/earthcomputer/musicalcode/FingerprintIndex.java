@@ -0,0 +1,535 @@
+package net.earthcomputer.musicalcode;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.ParameterNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * A per-jar index of normalized hashes for every field and method, such that two members have the same hash exactly
+ * when {@link JarComparer} would consider them unchanged. The index is built once per remapped jar and cached next to it.
+ */
+public class FingerprintIndex {
+    private static final int MAGIC = 0x4d434649; // MCFI
+    private static final int FORMAT_VERSION = 1;
+
+    private final Map<String, ClassFingerprint> classes;
+
+    private FingerprintIndex(Map<String, ClassFingerprint> classes) {
+        this.classes = classes;
+    }
+
+    public ClassFingerprint getClassFingerprint(String className) {
+        return classes.get(className);
+    }
+
+    public Set<String> getClassNames() {
+        return Collections.unmodifiableSet(classes.keySet());
+    }
+
+    public static FingerprintIndex load(File jar, boolean refresh, int threads, Consumer<String> log, Consumer<String> err) {
+        String jarName = jar.getName();
+        if (jarName.endsWith(".jar")) {
+            jarName = jarName.substring(0, jarName.length() - 4);
+        }
+        File indexFile = new File(jar.getParentFile(), jarName + ".fingerprints");
+
+        if (!refresh && indexFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                FingerprintIndex index = read(in, jar);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException e) {
+                err.accept("Failed to read fingerprint index " + indexFile + ", rebuilding it");
+            }
+        }
+
+        log.accept("Building fingerprint index for " + jar.getName() + "...");
+        FingerprintIndex index = build(jar, threads);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            index.write(out, jar);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write fingerprint index " + indexFile, e);
+        }
+        return index;
+    }
+
+    public static FingerprintIndex build(File jar, int threads) {
+        try (MappedJar mappedJar = MappedJar.open(jar)) {
+            List<MappedJar.Entry> entries = new ArrayList<>();
+            for (MappedJar.Entry entry : mappedJar.getEntries()) {
+                if (entry.getName().endsWith(".class")) {
+                    entries.add(entry);
+                }
+            }
+
+            ExecutorService executor = new ForkJoinPool(Math.max(1, threads));
+            try {
+                List<Future<ClassFingerprint>> results = new ArrayList<>(entries.size());
+                for (MappedJar.Entry entry : entries) {
+                    results.add(executor.submit(() -> {
+                        ClassNode node = new ClassNode();
+                        new ClassReader(mappedJar.getBytes(entry)).accept(node, ClassReader.SKIP_FRAMES);
+                        return ClassFingerprint.of(node);
+                    }));
+                }
+                Map<String, ClassFingerprint> classes = new LinkedHashMap<>();
+                for (Future<ClassFingerprint> result : results) {
+                    ClassFingerprint clazz = result.get();
+                    classes.put(clazz.name, clazz);
+                }
+                return new FingerprintIndex(classes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while building fingerprint index", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw new UncheckedIOException((IOException) e.getCause());
+                }
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + jar, e);
+        }
+    }
+
+    private static FingerprintIndex read(DataInputStream in, File jar) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        // the index is stale if the jar has been rewritten since
+        if (in.readLong() != jar.length() || in.readLong() != jar.lastModified()) {
+            return null;
+        }
+        int classCount = in.readInt();
+        Map<String, ClassFingerprint> classes = new LinkedHashMap<>(classCount * 4 / 3 + 1);
+        for (int i = 0; i < classCount; i++) {
+            String name = in.readUTF();
+            long hash = in.readLong();
+            List<MemberFingerprint> fields = readMembers(in);
+            List<MemberFingerprint> methods = readMembers(in);
+            classes.put(name, new ClassFingerprint(name, hash, fields, methods));
+        }
+        return new FingerprintIndex(classes);
+    }
+
+    private static List<MemberFingerprint> readMembers(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<MemberFingerprint> members = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            members.add(new MemberFingerprint(in.readUTF(), in.readUTF(), in.readLong()));
+        }
+        return members;
+    }
+
+    private void write(DataOutputStream out, File jar) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(jar.length());
+        out.writeLong(jar.lastModified());
+        out.writeInt(classes.size());
+        for (ClassFingerprint clazz : classes.values()) {
+            out.writeUTF(clazz.name);
+            out.writeLong(clazz.hash);
+            writeMembers(out, clazz.fields);
+            writeMembers(out, clazz.methods);
+        }
+    }
+
+    private static void writeMembers(DataOutputStream out, List<MemberFingerprint> members) throws IOException {
+        out.writeInt(members.size());
+        for (MemberFingerprint member : members) {
+            out.writeUTF(member.name);
+            out.writeUTF(member.desc);
+            out.writeLong(member.hash);
+        }
+    }
+
+    public static class ClassFingerprint {
+        private final String name;
+        private final long hash;
+        private final List<MemberFingerprint> fields;
+        private final List<MemberFingerprint> methods;
+
+        private ClassFingerprint(String name, long hash, List<MemberFingerprint> fields, List<MemberFingerprint> methods) {
+            this.name = name;
+            this.hash = hash;
+            this.fields = Collections.unmodifiableList(fields);
+            this.methods = Collections.unmodifiableList(methods);
+        }
+
+        static ClassFingerprint of(ClassNode node) {
+            List<MemberFingerprint> fields = new ArrayList<>();
+            List<MemberFingerprint> methods = new ArrayList<>();
+            Hasher classHasher = Hashing.murmur3_128().newHasher();
+            if (node.fields != null) {
+                for (FieldNode field : node.fields) {
+                    MemberFingerprint fingerprint = new MemberFingerprint(field.name, field.desc, hashField(field));
+                    fields.add(fingerprint);
+                    putString(classHasher, field.name);
+                    putString(classHasher, field.desc);
+                    classHasher.putLong(fingerprint.hash);
+                }
+            }
+            classHasher.putInt(fields.size());
+            if (node.methods != null) {
+                for (MethodNode method : node.methods) {
+                    MemberFingerprint fingerprint = new MemberFingerprint(method.name, method.desc, hashMethod(method));
+                    methods.add(fingerprint);
+                    putString(classHasher, method.name);
+                    putString(classHasher, method.desc);
+                    classHasher.putLong(fingerprint.hash);
+                }
+            }
+            classHasher.putInt(methods.size());
+            return new ClassFingerprint(node.name, classHasher.hash().asLong(), fields, methods);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * A hash over all the member fingerprints, equal hashes mean none of the members have changed.
+         */
+        public long getHash() {
+            return hash;
+        }
+
+        public List<MemberFingerprint> getFields() {
+            return fields;
+        }
+
+        public List<MemberFingerprint> getMethods() {
+            return methods;
+        }
+    }
+
+    public static class MemberFingerprint {
+        private final String name;
+        private final String desc;
+        private final long hash;
+
+        private MemberFingerprint(String name, String desc, long hash) {
+            this.name = name;
+            this.desc = desc;
+            this.hash = hash;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDesc() {
+            return desc;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+    }
+
+    // the hashes must mirror the equivalence rules in JarComparer.hasFieldChanged and JarComparer.hasMethodChanged
+
+    static long hashField(FieldNode field) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putInt(field.access);
+        putString(hasher, field.desc);
+        putString(hasher, field.signature);
+        putValue(hasher, field.value);
+        putAnnotations(hasher, field.invisibleAnnotations);
+        putAnnotations(hasher, field.visibleAnnotations);
+        return hasher.hash().asLong();
+    }
+
+    static long hashMethod(MethodNode method) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putInt(method.access);
+        putString(hasher, method.signature);
+        if (method.exceptions == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(method.exceptions.size());
+            for (String exception : method.exceptions) {
+                putString(hasher, exception);
+            }
+        }
+        if (method.parameters == null) {
+            hasher.putInt(-1);
+        } else {
+            // parameter names are deliberately ignored
+            hasher.putInt(method.parameters.size());
+            for (ParameterNode parameter : method.parameters) {
+                hasher.putInt(parameter.access);
+            }
+        }
+        putAnnotations(hasher, method.invisibleAnnotations);
+        putAnnotations(hasher, method.visibleAnnotations);
+        putValue(hasher, method.annotationDefault);
+        hasher.putInt(method.visibleAnnotableParameterCount);
+        putParameterAnnotations(hasher, method.visibleParameterAnnotations);
+        hasher.putInt(method.invisibleAnnotableParameterCount);
+        putParameterAnnotations(hasher, method.invisibleParameterAnnotations);
+        putInstructions(hasher, method.instructions);
+        return hasher.hash().asLong();
+    }
+
+    private static void putParameterAnnotations(Hasher hasher, List<AnnotationNode>[] parameterAnnotations) {
+        if (parameterAnnotations == null) {
+            hasher.putInt(-1);
+            return;
+        }
+        hasher.putInt(parameterAnnotations.length);
+        for (List<AnnotationNode> annotations : parameterAnnotations) {
+            putValue(hasher, annotations);
+        }
+    }
+
+    private static void putAnnotations(Hasher hasher, List<AnnotationNode> annotations) {
+        if (annotations == null) {
+            hasher.putInt(-1);
+            return;
+        }
+        hasher.putInt(annotations.size());
+        for (AnnotationNode annotation : annotations) {
+            putAnnotation(hasher, annotation);
+        }
+    }
+
+    private static void putAnnotation(Hasher hasher, AnnotationNode annotation) {
+        putString(hasher, annotation.desc);
+        putValue(hasher, annotation.values);
+    }
+
+    private static void putValue(Hasher hasher, Object value) {
+        if (value == null) {
+            hasher.putByte((byte) 0);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            hasher.putByte((byte) 1);
+            hasher.putInt(list.size());
+            for (Object element : list) {
+                putValue(hasher, element);
+            }
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            hasher.putByte((byte) 2);
+            hasher.putInt(array.length);
+            for (Object element : array) {
+                putValue(hasher, element);
+            }
+        } else if (value instanceof AnnotationNode) {
+            hasher.putByte((byte) 3);
+            putAnnotation(hasher, (AnnotationNode) value);
+        } else if (value instanceof Handle) {
+            hasher.putByte((byte) 4);
+            putHandle(hasher, (Handle) value);
+        } else if (value instanceof ConstantDynamic) {
+            ConstantDynamic condy = (ConstantDynamic) value;
+            hasher.putByte((byte) 5);
+            putString(hasher, condy.getName());
+            putString(hasher, condy.getDescriptor());
+            putHandle(hasher, condy.getBootstrapMethod());
+            hasher.putInt(condy.getBootstrapMethodArgumentCount());
+            for (int i = 0; i < condy.getBootstrapMethodArgumentCount(); i++) {
+                putValue(hasher, condy.getBootstrapMethodArgument(i));
+            }
+        } else if (value instanceof Type) {
+            hasher.putByte((byte) 6);
+            hasher.putInt(((Type) value).getSort());
+            putString(hasher, ((Type) value).getDescriptor());
+        } else if (value instanceof Float) {
+            hasher.putByte((byte) 7);
+            hasher.putInt(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Double) {
+            hasher.putByte((byte) 8);
+            hasher.putLong(Double.doubleToLongBits((Double) value));
+        } else {
+            // strings, boxed integral types, booleans and characters, which are only equal to values of the same class
+            hasher.putByte((byte) 9);
+            putString(hasher, value.getClass().getName());
+            putString(hasher, value.toString());
+        }
+    }
+
+    private static void putHandle(Hasher hasher, Handle handle) {
+        hasher.putInt(handle.getTag());
+        putString(hasher, handle.getOwner());
+        putString(hasher, handle.getName());
+        putString(hasher, handle.getDesc());
+        hasher.putBoolean(handle.isInterface());
+    }
+
+    private static void putString(Hasher hasher, String str) {
+        if (str == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(str.length());
+            hasher.putString(str, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void putInstructions(Hasher hasher, InsnList instructions) {
+        if (instructions == null) {
+            hasher.putInt(-1);
+            return;
+        }
+
+        // labels are identified by their index in the list of non-ignored instructions, like haveInstructionsChanged
+        Map<LabelNode, Integer> labelIndices = new IdentityHashMap<>();
+        int insnIndex = 0;
+        for (AbstractInsnNode insn = instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (!JarComparer.isInstructionIgnored(insn)) {
+                insnIndex++;
+                if (insn.getType() == AbstractInsnNode.LABEL) {
+                    labelIndices.put((LabelNode) insn, insnIndex);
+                }
+            }
+        }
+        hasher.putInt(insnIndex);
+
+        for (AbstractInsnNode insn = instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (JarComparer.isInstructionIgnored(insn)) {
+                continue;
+            }
+            hasher.putInt(insn.getOpcode());
+            switch (insn.getType()) {
+                case AbstractInsnNode.INSN:
+                case AbstractInsnNode.LABEL: {
+                    break;
+                }
+                case AbstractInsnNode.INT_INSN: {
+                    hasher.putInt(((IntInsnNode) insn).operand);
+                    break;
+                }
+                case AbstractInsnNode.VAR_INSN: {
+                    hasher.putInt(((VarInsnNode) insn).var);
+                    break;
+                }
+                case AbstractInsnNode.TYPE_INSN: {
+                    putString(hasher, ((TypeInsnNode) insn).desc);
+                    break;
+                }
+                case AbstractInsnNode.FIELD_INSN: {
+                    FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+                    putString(hasher, fieldInsn.owner);
+                    putString(hasher, fieldInsn.name);
+                    putString(hasher, fieldInsn.desc);
+                    break;
+                }
+                case AbstractInsnNode.METHOD_INSN: {
+                    MethodInsnNode methodInsn = (MethodInsnNode) insn;
+                    putString(hasher, methodInsn.owner);
+                    putString(hasher, methodInsn.name);
+                    putString(hasher, methodInsn.desc);
+                    hasher.putBoolean(methodInsn.itf);
+                    break;
+                }
+                case AbstractInsnNode.INVOKE_DYNAMIC_INSN: {
+                    InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+                    putString(hasher, indy.name);
+                    putString(hasher, indy.desc);
+                    putHandle(hasher, indy.bsm);
+                    hasher.putInt(indy.bsmArgs.length);
+                    for (Object bsmArg : indy.bsmArgs) {
+                        putValue(hasher, bsmArg);
+                    }
+                    break;
+                }
+                case AbstractInsnNode.JUMP_INSN: {
+                    hasher.putInt(labelIndices.get(((JumpInsnNode) insn).label));
+                    break;
+                }
+                case AbstractInsnNode.LDC_INSN: {
+                    putValue(hasher, ((LdcInsnNode) insn).cst);
+                    break;
+                }
+                case AbstractInsnNode.IINC_INSN: {
+                    IincInsnNode iinc = (IincInsnNode) insn;
+                    hasher.putInt(iinc.var);
+                    hasher.putInt(iinc.incr);
+                    break;
+                }
+                case AbstractInsnNode.TABLESWITCH_INSN: {
+                    TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) insn;
+                    hasher.putInt(tableSwitch.min);
+                    hasher.putInt(tableSwitch.max);
+                    hasher.putInt(labelIndices.get(tableSwitch.dflt));
+                    hasher.putInt(tableSwitch.labels.size());
+                    for (LabelNode label : tableSwitch.labels) {
+                        hasher.putInt(labelIndices.get(label));
+                    }
+                    break;
+                }
+                case AbstractInsnNode.LOOKUPSWITCH_INSN: {
+                    LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) insn;
+                    hasher.putInt(lookupSwitch.keys.size());
+                    for (int key : lookupSwitch.keys) {
+                        hasher.putInt(key);
+                    }
+                    hasher.putInt(labelIndices.get(lookupSwitch.dflt));
+                    hasher.putInt(lookupSwitch.labels.size());
+                    for (LabelNode label : lookupSwitch.labels) {
+                        hasher.putInt(labelIndices.get(label));
+                    }
+                    break;
+                }
+                case AbstractInsnNode.MULTIANEWARRAY_INSN: {
+                    MultiANewArrayInsnNode multiANewArray = (MultiANewArrayInsnNode) insn;
+                    putString(hasher, multiANewArray.desc);
+                    hasher.putInt(multiANewArray.dims);
+                    break;
+                }
+                default: throw new AssertionError("Unknown AbstractInsnNode type: " + insn.getType());
+            }
+        }
+    }
+}
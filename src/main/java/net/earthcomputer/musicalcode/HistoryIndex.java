@@ -0,0 +1,283 @@
+package net.earthcomputer.musicalcode;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * The versions each class and member changed in, over a chain of versions. It is read through a memory-mapped file, so
+ * a query only reads the few pages it needs.
+ *
+ * <p>The file holds the version names, then one entry for each class or member which ever changed, sorted by class
+ * name. Each entry points to its target and to the run of its changes, sorted by version, so both the class and the
+ * versions of a query are found by binary search.</p>
+ */
+public class HistoryIndex implements Closeable {
+    private static final int MAGIC = 0x4d434849; // MCHI
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int ADDED = 0, REMOVED = 1, CHANGED = 2;
+    private static final String[] ACTIONS = {"added", "removed", "changed"};
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final List<String> versions;
+    private final int entryCount;
+    // absolute offsets of the target offsets, the event run starts and the events
+    private final int targetOffsets;
+    private final int eventStarts;
+    private final int events;
+
+    private HistoryIndex(FileChannel channel, MappedByteBuffer buffer, List<String> versions, int entryCount, int targetOffsets, int eventStarts, int events) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.versions = Collections.unmodifiableList(versions);
+        this.entryCount = entryCount;
+        this.targetOffsets = targetOffsets;
+        this.eventStarts = eventStarts;
+        this.events = events;
+    }
+
+    public static HistoryIndex open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("History index too large to map: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Not a history index, or from another version of MusicalCode: " + file);
+            }
+            int versionCount = buffer.getInt(8);
+            List<String> versions = new ArrayList<>(versionCount);
+            int offset = 12;
+            for (int i = 0; i < versionCount; i++) {
+                versions.add(readString(buffer, offset));
+                offset += 4 + buffer.getInt(offset);
+            }
+            int entryCount = buffer.getInt(offset);
+            int targetOffsets = offset + 8;
+            int eventStarts = targetOffsets + entryCount * 4;
+            int events = eventStarts + (entryCount + 1) * 4;
+            return new HistoryIndex(channel, buffer, versions, entryCount, targetOffsets, eventStarts, events);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the versions, oldest first.
+     */
+    public List<String> getVersions() {
+        return versions;
+    }
+
+    /**
+     * Reports the changes to a class and its members made after one version, up to and including another, given as
+     * indexes into {@link #getVersions()}. The changes to each target are reported together, oldest first.
+     */
+    public void findChanges(String className, int afterVersion, int untilVersion, BiConsumer<String, JarComparer.Change> changes) {
+        // the first entry of the class
+        int low = 0, high = entryCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (readString(buffer, getTargetOffset(mid) + 1).compareTo(className) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        for (int entry = low; entry < entryCount; entry++) {
+            int offset = getTargetOffset(entry);
+            byte kind = buffer.get(offset);
+            String entryClass = readString(buffer, ++offset);
+            if (!entryClass.equals(className)) {
+                break;
+            }
+            offset += 4 + buffer.getInt(offset);
+            String name = readString(buffer, offset);
+            offset += 4 + buffer.getInt(offset);
+            String desc = readString(buffer, offset);
+
+            int end = buffer.getInt(eventStarts + (entry + 1) * 4);
+            for (int event = firstEventAfter(entry, afterVersion); event < end; event++) {
+                int value = buffer.getInt(events + event * 4);
+                int version = value >>> 2;
+                if (version > untilVersion) {
+                    break;
+                }
+                String action = ACTIONS[value & 3];
+                JarComparer.Change change;
+                if (kind == JarComparer.Change.Kind.CLASS.ordinal()) {
+                    change = JarComparer.Change.ofClass(className, action);
+                } else if (kind == JarComparer.Change.Kind.FIELD.ordinal()) {
+                    change = JarComparer.Change.ofField(className, name, desc, action);
+                } else {
+                    change = JarComparer.Change.ofMethod(className, name, desc, action);
+                }
+                changes.accept(versions.get(version), change);
+            }
+        }
+    }
+
+    private int getTargetOffset(int entry) {
+        return buffer.getInt(targetOffsets + entry * 4);
+    }
+
+    private int firstEventAfter(int entry, int afterVersion) {
+        int low = buffer.getInt(eventStarts + entry * 4);
+        int high = buffer.getInt(eventStarts + (entry + 1) * 4);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getInt(events + mid * 4) >>> 2 <= afterVersion) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String readString(MappedByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Collects the changes between each version and the next, in order, to write them as a history index.
+     */
+    public static class Builder {
+        private final List<String> versions;
+        private final Map<String, Entry> entries = new HashMap<>();
+        private int eventCount;
+
+        public Builder(List<String> versions) {
+            this.versions = versions;
+        }
+
+        /**
+         * Adds a change made in the given version, which must not be older than any change added before.
+         */
+        public void add(int version, JarComparer.Change change) {
+            Entry entry = entries.computeIfAbsent(change.getTarget(), k -> new Entry(change));
+            int action = change.getAction().equals("added") ? ADDED : change.getAction().equals("removed") ? REMOVED : CHANGED;
+            if (entry.eventCount == entry.events.length) {
+                entry.events = Arrays.copyOf(entry.events, entry.events.length * 2);
+            }
+            entry.events[entry.eventCount++] = version << 2 | action;
+            eventCount++;
+        }
+
+        public void write(File file) {
+            List<Entry> sortedEntries = new ArrayList<>(entries.values());
+            sortedEntries.sort(Comparator.comparing((Entry entry) -> entry.change.getClassName()).thenComparing(entry -> entry.change.getTarget()));
+
+            List<byte[]> versionNames = new ArrayList<>(versions.size());
+            int headerSize = 12;
+            for (String version : versions) {
+                byte[] versionName = version.getBytes(StandardCharsets.UTF_8);
+                versionNames.add(versionName);
+                headerSize += 4 + versionName.length;
+            }
+            headerSize += 8 + sortedEntries.size() * 4 + (sortedEntries.size() + 1) * 4 + eventCount * 4;
+
+            // written to a temporary file first, so that a failed build doesn't replace a good index. Its name is
+            // unique, so two runs building the same index at once don't write into the same file
+            File tempFile = null;
+            try {
+                tempFile = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), "tmp-", "-" + file.getName()).toFile();
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeInt(versionNames.size());
+                    for (byte[] versionName : versionNames) {
+                        writeBytes(out, versionName);
+                    }
+                    out.writeInt(sortedEntries.size());
+                    out.writeInt(eventCount);
+
+                    List<byte[][]> targets = new ArrayList<>(sortedEntries.size());
+                    int targetOffset = headerSize;
+                    for (Entry entry : sortedEntries) {
+                        JarComparer.Change change = entry.change;
+                        byte[][] target = {
+                                change.getClassName().getBytes(StandardCharsets.UTF_8),
+                                change.getName() == null ? new byte[0] : change.getName().getBytes(StandardCharsets.UTF_8),
+                                change.getDesc() == null ? new byte[0] : change.getDesc().getBytes(StandardCharsets.UTF_8)
+                        };
+                        targets.add(target);
+                        out.writeInt(targetOffset);
+                        targetOffset += 1 + 12 + target[0].length + target[1].length + target[2].length;
+                    }
+                    int eventStart = 0;
+                    for (Entry entry : sortedEntries) {
+                        out.writeInt(eventStart);
+                        eventStart += entry.eventCount;
+                    }
+                    out.writeInt(eventStart);
+                    for (Entry entry : sortedEntries) {
+                        for (int i = 0; i < entry.eventCount; i++) {
+                            out.writeInt(entry.events[i]);
+                        }
+                    }
+                    for (int i = 0; i < sortedEntries.size(); i++) {
+                        out.writeByte(sortedEntries.get(i).change.getKind().ordinal());
+                        for (byte[] part : targets.get(i)) {
+                            writeBytes(out, part);
+                        }
+                    }
+                }
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                if (tempFile != null) {
+                    //noinspection ResultOfMethodCallIgnored
+                    tempFile.delete();
+                }
+                throw new UncheckedIOException("Failed to write history index " + file, e);
+            }
+        }
+
+        private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static class Entry {
+            private final JarComparer.Change change;
+            private int[] events = new int[2];
+            private int eventCount;
+
+            private Entry(JarComparer.Change change) {
+                this.change = change;
+            }
+        }
+    }
+}
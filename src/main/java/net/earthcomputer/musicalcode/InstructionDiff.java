@@ -0,0 +1,386 @@
+package net.earthcomputer.musicalcode;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Lists the instructions which were removed, inserted and modified in a changed method, named in yarn.
+ *
+ * <p>The instructions are diffed with the linear space variant of Myers' algorithm, which finds the middle snake of
+ * the edit graph and recurses either side of it, so only two arrays the size of the methods are needed however
+ * different they are. Instructions are matched by what they do, ignoring which label a jump goes to, so that a label
+ * added early in a method doesn't make every later jump look modified.</p>
+ */
+public class InstructionDiff {
+    private static final String LAMBDA_METAFACTORY = "java/lang/invoke/LambdaMetafactory";
+    private static final String[] OPCODES = {
+            "NOP", "ACONST_NULL", "ICONST_M1", "ICONST_0", "ICONST_1", "ICONST_2", "ICONST_3", "ICONST_4", "ICONST_5",
+            "LCONST_0", "LCONST_1", "FCONST_0", "FCONST_1", "FCONST_2", "DCONST_0", "DCONST_1", "BIPUSH", "SIPUSH",
+            "LDC", "LDC_W", "LDC2_W", "ILOAD", "LLOAD", "FLOAD", "DLOAD", "ALOAD", "ILOAD_0", "ILOAD_1", "ILOAD_2",
+            "ILOAD_3", "LLOAD_0", "LLOAD_1", "LLOAD_2", "LLOAD_3", "FLOAD_0", "FLOAD_1", "FLOAD_2", "FLOAD_3",
+            "DLOAD_0", "DLOAD_1", "DLOAD_2", "DLOAD_3", "ALOAD_0", "ALOAD_1", "ALOAD_2", "ALOAD_3", "IALOAD", "LALOAD",
+            "FALOAD", "DALOAD", "AALOAD", "BALOAD", "CALOAD", "SALOAD", "ISTORE", "LSTORE", "FSTORE", "DSTORE",
+            "ASTORE", "ISTORE_0", "ISTORE_1", "ISTORE_2", "ISTORE_3", "LSTORE_0", "LSTORE_1", "LSTORE_2", "LSTORE_3",
+            "FSTORE_0", "FSTORE_1", "FSTORE_2", "FSTORE_3", "DSTORE_0", "DSTORE_1", "DSTORE_2", "DSTORE_3", "ASTORE_0",
+            "ASTORE_1", "ASTORE_2", "ASTORE_3", "IASTORE", "LASTORE", "FASTORE", "DASTORE", "AASTORE", "BASTORE",
+            "CASTORE", "SASTORE", "POP", "POP2", "DUP", "DUP_X1", "DUP_X2", "DUP2", "DUP2_X1", "DUP2_X2", "SWAP",
+            "IADD", "LADD", "FADD", "DADD", "ISUB", "LSUB", "FSUB", "DSUB", "IMUL", "LMUL", "FMUL", "DMUL", "IDIV",
+            "LDIV", "FDIV", "DDIV", "IREM", "LREM", "FREM", "DREM", "INEG", "LNEG", "FNEG", "DNEG", "ISHL", "LSHL",
+            "ISHR", "LSHR", "IUSHR", "LUSHR", "IAND", "LAND", "IOR", "LOR", "IXOR", "LXOR", "IINC", "I2L", "I2F",
+            "I2D", "L2I", "L2F", "L2D", "F2I", "F2L", "F2D", "D2I", "D2L", "D2F", "I2B", "I2C", "I2S", "LCMP", "FCMPL",
+            "FCMPG", "DCMPL", "DCMPG", "IFEQ", "IFNE", "IFLT", "IFGE", "IFGT", "IFLE", "IF_ICMPEQ", "IF_ICMPNE",
+            "IF_ICMPLT", "IF_ICMPGE", "IF_ICMPGT", "IF_ICMPLE", "IF_ACMPEQ", "IF_ACMPNE", "GOTO", "JSR", "RET",
+            "TABLESWITCH", "LOOKUPSWITCH", "IRETURN", "LRETURN", "FRETURN", "DRETURN", "ARETURN", "RETURN",
+            "GETSTATIC", "PUTSTATIC", "GETFIELD", "PUTFIELD", "INVOKEVIRTUAL", "INVOKESPECIAL", "INVOKESTATIC",
+            "INVOKEINTERFACE", "INVOKEDYNAMIC", "NEW", "NEWARRAY", "ANEWARRAY", "ARRAYLENGTH", "ATHROW", "CHECKCAST",
+            "INSTANCEOF", "MONITORENTER", "MONITOREXIT", "WIDE", "MULTIANEWARRAY", "IFNULL", "IFNONNULL"
+    };
+
+    private final MappedJar fromJar;
+    private final MappedJar toJar;
+    // the changes of a class are reported together, and a changed class often has several changed methods, so only
+    // the class of the last change is kept parsed
+    private String className;
+    private ClassNode fromClass;
+    private ClassNode toClass;
+    // equal instructions are given the same number, so the diff compares ints. Only methods of the same class are
+    // diffed against each other, so the numbers start again with each class
+    private final Map<String, Integer> keyNumbers = new HashMap<>();
+
+    public InstructionDiff(MappedJar fromJar, MappedJar toJar) {
+        this.fromJar = fromJar;
+        this.toJar = toJar;
+    }
+
+    /**
+     * Reports the edits to the code of a changed method, one line for each instruction. Nothing is reported if the
+     * change isn't to the code.
+     */
+    public void describe(JarComparer.Change change, Remapper intermediary2Yarn, Consumer<String> output) {
+        if (!change.getClassName().equals(className)) {
+            className = change.getClassName();
+            fromClass = parseClass(fromJar, className);
+            toClass = parseClass(toJar, className);
+            keyNumbers.clear();
+        }
+        MethodNode fromMethod = findMethod(fromClass, change);
+        MethodNode toMethod = findMethod(toClass, change);
+        if (fromMethod == null || toMethod == null) {
+            return;
+        }
+        Instructions from = new Instructions(fromMethod, intermediary2Yarn, keyNumbers);
+        Instructions to = new Instructions(toMethod, intermediary2Yarn, keyNumbers);
+
+        boolean[] removed = new boolean[from.size()];
+        boolean[] inserted = new boolean[to.size()];
+        diff(from.keys, from.size(), to.keys, to.size(), removed, inserted);
+        describeEdits(from.texts, to.texts, removed, inserted, output);
+    }
+
+    /**
+     * Marks the first {@code aSize} elements of {@code a} which aren't in the longest common subsequence as removed,
+     * and the first {@code bSize} elements of {@code b} which aren't in it as inserted.
+     */
+    static void diff(int[] a, int aSize, int[] b, int bSize, boolean[] removed, boolean[] inserted) {
+        int max = aSize + bSize + 1;
+        new Differ(a, b, new int[2 * max + 2], new int[2 * max + 2], removed, inserted).diff(0, aSize, 0, bSize);
+    }
+
+    /**
+     * Reports the edits found by {@link #diff}, one line for each instruction.
+     */
+    static void describeEdits(List<String> from, List<String> to, boolean[] removed, boolean[] inserted, Consumer<String> output) {
+        int i = 0, j = 0;
+        while (i < from.size() || j < to.size()) {
+            if (i < from.size() && j < to.size() && !removed[i] && !inserted[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            // a run of removed instructions in the place of a run of inserted ones is a run of modified ones
+            int removedStart = i, insertedStart = j;
+            while (i < from.size() && removed[i]) {
+                i++;
+            }
+            while (j < to.size() && inserted[j]) {
+                j++;
+            }
+            int modified = Math.min(i - removedStart, j - insertedStart);
+            for (int k = 0; k < modified; k++) {
+                output.accept("    ~ " + (removedStart + k) + ": " + from.get(removedStart + k) + " -> " + to.get(insertedStart + k));
+            }
+            for (int k = removedStart + modified; k < i; k++) {
+                output.accept("    - " + k + ": " + from.get(k));
+            }
+            for (int k = insertedStart + modified; k < j; k++) {
+                output.accept("    + " + k + ": " + to.get(k));
+            }
+        }
+    }
+
+    private static ClassNode parseClass(MappedJar jar, String className) {
+        MappedJar.Entry entry = jar.getEntry(className + ".class");
+        if (entry == null) {
+            return null;
+        }
+        ClassNode node = new ClassNode();
+        try {
+            new ClassReader(jar.getBytes(entry)).accept(node, ClassReader.SKIP_FRAMES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return node;
+    }
+
+    private static MethodNode findMethod(ClassNode node, JarComparer.Change change) {
+        if (node == null) {
+            return null;
+        }
+        for (MethodNode method : node.methods) {
+            if (method.name.equals(change.getName()) && method.desc.equals(change.getDesc())) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The instructions of a method, as text to show and as keys to match them by. Line numbers and frames are left out,
+     * like {@link JarComparer} leaves them out.
+     */
+    private static class Instructions {
+        private final List<String> texts = new ArrayList<>();
+        private int[] keys = new int[16];
+
+        private Instructions(MethodNode method, Remapper remapper, Map<String, Integer> keyNumbers) {
+            Map<LabelNode, Integer> labels = new IdentityHashMap<>();
+            for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+                if (insn.getType() == AbstractInsnNode.LABEL) {
+                    labels.put((LabelNode) insn, labels.size());
+                }
+            }
+
+            for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+                if (JarComparer.isInstructionIgnored(insn)) {
+                    continue;
+                }
+                String text = toString(insn, remapper, labels);
+                String key = insn.getType() == AbstractInsnNode.LABEL ? "label"
+                        : insn.getType() == AbstractInsnNode.JUMP_INSN ? OPCODES[insn.getOpcode()]
+                        : text;
+                if (texts.size() == keys.length) {
+                    keys = Arrays.copyOf(keys, keys.length * 2);
+                }
+                keys[texts.size()] = keyNumbers.computeIfAbsent(key, k -> keyNumbers.size());
+                texts.add(text);
+            }
+        }
+
+        private int size() {
+            return texts.size();
+        }
+
+        private static String toString(AbstractInsnNode insn, Remapper remapper, Map<LabelNode, Integer> labels) {
+            switch (insn.getType()) {
+                case AbstractInsnNode.LABEL:
+                    return "L" + labels.get(insn) + ":";
+                case AbstractInsnNode.INT_INSN:
+                    return OPCODES[insn.getOpcode()] + " " + ((IntInsnNode) insn).operand;
+                case AbstractInsnNode.VAR_INSN:
+                    return OPCODES[insn.getOpcode()] + " " + ((VarInsnNode) insn).var;
+                case AbstractInsnNode.TYPE_INSN:
+                    return OPCODES[insn.getOpcode()] + " " + remapper.map(((TypeInsnNode) insn).desc);
+                case AbstractInsnNode.FIELD_INSN: {
+                    FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+                    return OPCODES[insn.getOpcode()] + " " + remapper.map(fieldInsn.owner) + "." + remapper.mapFieldName(fieldInsn.owner, fieldInsn.name, fieldInsn.desc)
+                            + " : " + remapper.mapDesc(fieldInsn.desc);
+                }
+                case AbstractInsnNode.METHOD_INSN: {
+                    MethodInsnNode methodInsn = (MethodInsnNode) insn;
+                    return OPCODES[insn.getOpcode()] + " " + remapper.map(methodInsn.owner) + "." + remapper.mapMethodName(methodInsn.owner, methodInsn.name, methodInsn.desc)
+                            + " " + remapper.mapMethodDesc(methodInsn.desc);
+                }
+                case AbstractInsnNode.INVOKE_DYNAMIC_INSN: {
+                    InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+                    String name = indy.name;
+                    // a lambda is named after the method it implements, like JarPipeline remaps it
+                    if (indy.bsm.getOwner().equals(LAMBDA_METAFACTORY) && indy.bsmArgs.length > 0 && indy.bsmArgs[0] instanceof Type) {
+                        name = remapper.mapMethodName(Type.getReturnType(indy.desc).getInternalName(), name, ((Type) indy.bsmArgs[0]).getDescriptor());
+                    }
+                    StringBuilder text = new StringBuilder(OPCODES[insn.getOpcode()]).append(' ')
+                            .append(name).append(' ').append(remapper.mapMethodDesc(indy.desc));
+                    for (Object bsmArg : indy.bsmArgs) {
+                        text.append(' ').append(toString(remapper.mapValue(bsmArg)));
+                    }
+                    return text.toString();
+                }
+                case AbstractInsnNode.JUMP_INSN:
+                    return OPCODES[insn.getOpcode()] + " L" + labels.get(((JumpInsnNode) insn).label);
+                case AbstractInsnNode.LDC_INSN:
+                    return OPCODES[insn.getOpcode()] + " " + toString(remapper.mapValue(((LdcInsnNode) insn).cst));
+                case AbstractInsnNode.IINC_INSN:
+                    return OPCODES[insn.getOpcode()] + " " + ((IincInsnNode) insn).var + " " + ((IincInsnNode) insn).incr;
+                case AbstractInsnNode.TABLESWITCH_INSN: {
+                    TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode) insn;
+                    StringBuilder text = new StringBuilder(OPCODES[insn.getOpcode()]);
+                    for (int i = 0; i < tableSwitch.labels.size(); i++) {
+                        text.append(' ').append(tableSwitch.min + i).append(": L").append(labels.get(tableSwitch.labels.get(i)));
+                    }
+                    return text.append(" default: L").append(labels.get(tableSwitch.dflt)).toString();
+                }
+                case AbstractInsnNode.LOOKUPSWITCH_INSN: {
+                    LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode) insn;
+                    StringBuilder text = new StringBuilder(OPCODES[insn.getOpcode()]);
+                    for (int i = 0; i < lookupSwitch.labels.size(); i++) {
+                        text.append(' ').append(lookupSwitch.keys.get(i)).append(": L").append(labels.get(lookupSwitch.labels.get(i)));
+                    }
+                    return text.append(" default: L").append(labels.get(lookupSwitch.dflt)).toString();
+                }
+                case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                    return OPCODES[insn.getOpcode()] + " " + remapper.mapDesc(((MultiANewArrayInsnNode) insn).desc) + " " + ((MultiANewArrayInsnNode) insn).dims;
+                default:
+                    return OPCODES[insn.getOpcode()];
+            }
+        }
+
+        private static String toString(Object value) {
+            if (value instanceof String) {
+                return '"' + ((String) value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + '"';
+            }
+            if (value instanceof Type) {
+                return ((Type) value).getDescriptor();
+            }
+            if (value instanceof Handle) {
+                Handle handle = (Handle) value;
+                return handle.getOwner() + "." + handle.getName() + handle.getDesc();
+            }
+            return String.valueOf(value);
+        }
+    }
+
+    /**
+     * Finds the instructions which aren't in the longest common subsequence of the two methods.
+     */
+    static class Differ {
+        private final int[] a;
+        private final int[] b;
+        // the furthest x reached on each diagonal, forwards from the start and backwards from the end
+        private final int[] forward;
+        private final int[] backward;
+        private final boolean[] removed;
+        private final boolean[] inserted;
+
+        /**
+         * @param forward scratch space for the forward search, at least {@code 2 * (a.length + b.length) + 4} long
+         * @param backward scratch space for the backward search, as long as {@code forward}
+         */
+        Differ(int[] a, int[] b, int[] forward, int[] backward, boolean[] removed, boolean[] inserted) {
+            this.a = a;
+            this.b = b;
+            this.forward = forward;
+            this.backward = backward;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        void diff(int aStart, int aEnd, int bStart, int bEnd) {
+            while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+                aStart++;
+                bStart++;
+            }
+            while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+                aEnd--;
+                bEnd--;
+            }
+            if (aStart == aEnd) {
+                Arrays.fill(inserted, bStart, bEnd, true);
+                return;
+            }
+            if (bStart == bEnd) {
+                Arrays.fill(removed, aStart, aEnd, true);
+                return;
+            }
+
+            // with the common ends trimmed there are at least two edits, so the middle snake has edits either side of
+            // it and both halves are smaller
+            int[] snake = findMiddleSnake(aStart, aEnd, bStart, bEnd);
+            diff(aStart, snake[0], bStart, snake[1]);
+            diff(snake[2], aEnd, snake[3], bEnd);
+        }
+
+        /**
+         * Returns the start and end of the middle snake, as {x, y, u, v}. The forward and backward searches each go
+         * half as many edits deep as the whole diff, until their paths overlap.
+         */
+        int[] findMiddleSnake(int aStart, int aEnd, int bStart, int bEnd) {
+            int n = aEnd - aStart;
+            int m = bEnd - bStart;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int offset = (n + m + 1) / 2 + 1;
+            forward[offset + 1] = 0;
+            backward[offset + 1] = 0;
+            for (int d = 0; d <= (n + m + 1) / 2; d++) {
+                for (int k = -d; k <= d; k += 2) {
+                    int x = k == -d || k != d && forward[offset + k - 1] < forward[offset + k + 1]
+                            ? forward[offset + k + 1]
+                            : forward[offset + k - 1] + 1;
+                    int y = x - k;
+                    int startX = x, startY = y;
+                    while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+                        x++;
+                        y++;
+                    }
+                    forward[offset + k] = x;
+                    if (odd && k >= delta - (d - 1) && k <= delta + (d - 1) && x + backward[offset + delta - k] >= n) {
+                        return new int[] {aStart + startX, bStart + startY, aStart + x, bStart + y};
+                    }
+                }
+                for (int k = -d; k <= d; k += 2) {
+                    int x = k == -d || k != d && backward[offset + k - 1] < backward[offset + k + 1]
+                            ? backward[offset + k + 1]
+                            : backward[offset + k - 1] + 1;
+                    int y = x - k;
+                    int startX = x, startY = y;
+                    while (x < n && y < m && a[aEnd - 1 - x] == b[bEnd - 1 - y]) {
+                        x++;
+                        y++;
+                    }
+                    backward[offset + k] = x;
+                    if (!odd && delta - k >= -d && delta - k <= d && x + forward[offset + delta - k] >= n) {
+                        return new int[] {aEnd - x, bEnd - y, aEnd - startX, bEnd - startY};
+                    }
+                }
+            }
+            throw new AssertionError("No middle snake found");
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package net.earthcomputer.musicalcode;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.commons.Remapper;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.AnnotationNode;
@@ -25,75 +29,563 @@ import org.objectweb.asm.tree.VarInsnNode;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 public class JarComparer {
-    public static void compare(JarFile fromJar, JarFile toJar, MemberPattern memberPattern, Remapper intermediary2Yarn, Consumer<String> outputLog, Consumer<String> errorLog) {
-        for (String className : memberPattern.getClasses()) {
-            JarEntry fromEntry = fromJar.getJarEntry(className + ".class");
-            JarEntry toEntry = toJar.getJarEntry(className + ".class");
-            if (fromEntry == null) {
-                if (toEntry != null) {
-                    visitAddedRemoved(toJar, toEntry, memberPattern, intermediary2Yarn, "added", outputLog);
+    private static Stats findChanges(MappedJar fromJar, ParsedClasses fromClasses, MappedJar toJar, ParsedClasses toClasses, Collection<String> classNames, MemberPattern memberPattern, int threads, ResultCache results, Consumer<Change> changes) {
+        Stats stats = new Stats();
+        forEachInOrder(classNames, threads, (className, classChanges) -> {
+            if (results == null) {
+                compareClass(fromJar, fromClasses, toJar, toClasses, className, memberPattern, stats, classChanges);
+            } else {
+                compareClass(fromJar, toJar, className, memberPattern, results, stats, classChanges);
+            }
+        }, changes);
+        return stats;
+    }
+
+    /**
+     * Compares the classes of several configs at once. Each class is read once and compared against all the configs
+     * together, and each change is then reported to every config which watches it, in that config's own order.
+     *
+     * @param fromClasses the classes already parsed from the from jar, to reuse and add to, or null
+     * @param toClasses the classes already parsed from the to jar, to reuse and add to, or null
+     */
+    public static Stats findChanges(MappedJar fromJar, ParsedClasses fromClasses, MappedJar toJar, ParsedClasses toClasses, List<MemberPattern> memberPatterns, int threads, ResultCache results, List<Consumer<Change>> changes) {
+        return findChanges(getClassNames(fromJar, toJar), memberPatterns, changes,
+                (classNames, memberPattern, classChanges) -> findChanges(fromJar, fromClasses, toJar, toClasses, classNames, memberPattern, threads, results, classChanges));
+    }
+
+    public static Stats findChanges(FingerprintIndex fromIndex, FingerprintIndex toIndex, List<MemberPattern> memberPatterns, List<Consumer<Change>> changes) {
+        return findChanges(getClassNames(fromIndex, toIndex), memberPatterns, changes,
+                (classNames, memberPattern, classChanges) -> findChanges(fromIndex, toIndex, classNames, memberPattern, classChanges));
+    }
+
+    private static Stats findChanges(Set<String> jarClasses, List<MemberPattern> memberPatterns, List<Consumer<Change>> changes, ClassesComparer comparer) {
+        if (memberPatterns.size() == 1) {
+            return comparer.compare(memberPatterns.get(0).getClasses(jarClasses), memberPatterns.get(0), changes.get(0));
+        }
+
+        List<Collection<String>> configClasses = new ArrayList<>(memberPatterns.size());
+        Set<String> allClasses = new LinkedHashSet<>();
+        for (MemberPattern memberPattern : memberPatterns) {
+            Collection<String> classes = memberPattern.getClasses(jarClasses);
+            configClasses.add(classes);
+            allClasses.addAll(classes);
+        }
+
+        // the union reports a change if any config watches it, so the changes are sorted out by config afterwards
+        Map<String, List<Change>> changesByClass = new HashMap<>();
+        Stats stats = comparer.compare(allClasses, MemberPattern.union(memberPatterns), change -> changesByClass.computeIfAbsent(change.getClassName(), k -> new ArrayList<>(1)).add(change));
+
+        for (int i = 0; i < memberPatterns.size(); i++) {
+            MemberPattern memberPattern = memberPatterns.get(i);
+            for (String className : configClasses.get(i)) {
+                for (Change change : changesByClass.getOrDefault(className, Collections.emptyList())) {
+                    if (change.isWatchedBy(memberPattern)) {
+                        changes.get(i).accept(change);
+                    }
                 }
+            }
+        }
+        return stats;
+    }
+
+    private static Set<String> getClassNames(MappedJar fromJar, MappedJar toJar) {
+        Set<String> jarClasses = new TreeSet<>();
+        addClassNames(fromJar, jarClasses);
+        addClassNames(toJar, jarClasses);
+        return jarClasses;
+    }
+
+    private static Set<String> getClassNames(FingerprintIndex fromIndex, FingerprintIndex toIndex) {
+        Set<String> jarClasses = new TreeSet<>();
+        jarClasses.addAll(fromIndex.getClassNames());
+        jarClasses.addAll(toIndex.getClassNames());
+        return jarClasses;
+    }
+
+    /**
+     * Compares every class in the two jars, rather than just the classes in a config. Added and removed classes are
+     * found from the central directories alone, and are reported without being opened.
+     */
+    public static Stats findAllChanges(MappedJar fromJar, MappedJar toJar, int threads, Consumer<Change> changes) {
+        Stats stats = new Stats();
+        MemberPattern memberPattern = MemberPattern.all();
+        List<String> classNames = mergeSorted(getSortedClassNames(fromJar), getSortedClassNames(toJar));
+        forEachInOrder(classNames, threads, (className, classChanges) -> {
+            MappedJar.Entry fromEntry = fromJar.getEntry(className + ".class");
+            MappedJar.Entry toEntry = toJar.getEntry(className + ".class");
+            if (fromEntry == null) {
+                classChanges.accept(Change.ofClass(className, "added"));
             } else if (toEntry == null) {
-                visitAddedRemoved(fromJar, fromEntry, memberPattern, intermediary2Yarn, "removed", outputLog);
+                classChanges.accept(Change.ofClass(className, "removed"));
+            } else {
+                compareClass(fromJar, null, toJar, null, className, memberPattern, stats, classChanges);
+            }
+        }, changes);
+        return stats;
+    }
+
+    public static Stats findAllChanges(FingerprintIndex fromIndex, FingerprintIndex toIndex, Consumer<Change> changes) {
+        Stats stats = new Stats();
+        MemberPattern memberPattern = MemberPattern.all();
+        List<String> fromClasses = new ArrayList<>(fromIndex.getClassNames());
+        List<String> toClasses = new ArrayList<>(toIndex.getClassNames());
+        fromClasses.sort(null);
+        toClasses.sort(null);
+        for (String className : mergeSorted(fromClasses, toClasses)) {
+            if (fromIndex.getClassFingerprint(className) == null) {
+                changes.accept(Change.ofClass(className, "added"));
+            } else if (toIndex.getClassFingerprint(className) == null) {
+                changes.accept(Change.ofClass(className, "removed"));
+            } else {
+                compareClass(fromIndex, toIndex, className, memberPattern, stats, changes);
+            }
+        }
+        return stats;
+    }
+
+    private static List<String> getSortedClassNames(MappedJar jar) {
+        List<String> classNames = new ArrayList<>();
+        for (MappedJar.Entry entry : jar.getEntries()) {
+            String name = entry.getName();
+            if (name.endsWith(".class")) {
+                classNames.add(name.substring(0, name.length() - 6));
+            }
+        }
+        classNames.sort(null);
+        return classNames;
+    }
+
+    private static List<String> mergeSorted(List<String> from, List<String> to) {
+        List<String> merged = new ArrayList<>(Math.max(from.size(), to.size()));
+        int fromIndex = 0, toIndex = 0;
+        while (fromIndex < from.size() || toIndex < to.size()) {
+            int cmp;
+            if (fromIndex == from.size()) {
+                cmp = 1;
+            } else if (toIndex == to.size()) {
+                cmp = -1;
             } else {
-                ClassReader fromReader, toReader;
-                try {
-                    fromReader = new ClassReader(fromJar.getInputStream(fromEntry));
-                    toReader = new ClassReader(toJar.getInputStream(toEntry));
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
+                cmp = from.get(fromIndex).compareTo(to.get(toIndex));
+            }
+            if (cmp <= 0) {
+                merged.add(from.get(fromIndex++));
+                if (cmp == 0) {
+                    toIndex++;
                 }
-                ClassNode fromClass = new ClassNode();
-                ClassNode toClass = new ClassNode();
-                fromReader.accept(fromClass, ClassReader.SKIP_FRAMES);
-                toReader.accept(toClass, ClassReader.SKIP_FRAMES);
-                compareClasses(fromClass, toClass, memberPattern, intermediary2Yarn, outputLog);
+            } else {
+                merged.add(to.get(toIndex++));
             }
         }
+        return merged;
+    }
 
-        memberPattern.assertUsed(errorLog);
+    private static void forEachInOrder(Collection<String> classNames, int threads, BiConsumer<String, Consumer<Change>> action, Consumer<Change> changes) {
+        if (threads <= 1) {
+            for (String className : classNames) {
+                action.accept(className, changes);
+            }
+            return;
+        }
+
+        // classes are compared concurrently, but each class buffers its own changes so that they can be replayed in order
+        ExecutorService executor = new ForkJoinPool(threads);
+        try {
+            List<Future<List<Change>>> results = new ArrayList<>();
+            for (String className : classNames) {
+                results.add(executor.submit(() -> {
+                    List<Change> classChanges = new ArrayList<>();
+                    action.accept(className, classChanges::add);
+                    return classChanges;
+                }));
+            }
+            for (Future<List<Change>> result : results) {
+                result.get().forEach(changes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while comparing jars", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
-    private static void visitAddedRemoved(JarFile jar, JarEntry entry, MemberPattern memberPattern, Remapper intermediary2Yarn, String action, Consumer<String> outputLog) {
-        ClassReader reader;
+    private static Stats findChanges(FingerprintIndex fromIndex, FingerprintIndex toIndex, Collection<String> classNames, MemberPattern memberPattern, Consumer<Change> changes) {
+        Stats stats = new Stats();
+        for (String className : classNames) {
+            compareClass(fromIndex, toIndex, className, memberPattern, stats, changes);
+        }
+        return stats;
+    }
+
+    private static void compareClass(FingerprintIndex fromIndex, FingerprintIndex toIndex, String className, MemberPattern memberPattern, Stats stats, Consumer<Change> changes) {
+        FingerprintIndex.ClassFingerprint fromClass = fromIndex.getClassFingerprint(className);
+        FingerprintIndex.ClassFingerprint toClass = toIndex.getClassFingerprint(className);
+        if (fromClass == null) {
+            if (toClass != null) {
+                visitAddedRemoved(toClass, memberPattern, "added", changes);
+            }
+        } else if (toClass == null) {
+            visitAddedRemoved(fromClass, memberPattern, "removed", changes);
+        } else {
+            stats.classesCompared.incrementAndGet();
+            if (fromClass.getHash() == toClass.getHash()) {
+                stats.classesSkipped.incrementAndGet();
+                if (!memberPattern.tracksUsage()) {
+                    return;
+                }
+                for (FingerprintIndex.MemberFingerprint field : fromClass.getFields()) {
+                    memberPattern.matchesField(className, field.getName(), field.getDesc());
+                }
+                for (FingerprintIndex.MemberFingerprint method : fromClass.getMethods()) {
+                    memberPattern.matchesMethod(className, method.getName(), method.getDesc());
+                }
+            } else {
+                compareClasses(fromClass, toClass, memberPattern, changes);
+            }
+        }
+    }
+
+    private static void addClassNames(MappedJar jar, Set<String> classNames) {
+        for (MappedJar.Entry entry : jar.getEntries()) {
+            String name = entry.getName();
+            if (name.endsWith(".class")) {
+                classNames.add(name.substring(0, name.length() - 6));
+            }
+        }
+    }
+
+    private static void compareClass(MappedJar fromJar, ParsedClasses fromClasses, MappedJar toJar, ParsedClasses toClasses, String className, MemberPattern memberPattern, Stats stats, Consumer<Change> changes) {
+        MappedJar.Entry fromEntry = fromJar.getEntry(className + ".class");
+        MappedJar.Entry toEntry = toJar.getEntry(className + ".class");
+        if (fromEntry == null) {
+            if (toEntry != null) {
+                visitAddedRemoved(toJar, toEntry, memberPattern, "added", stats, changes);
+            }
+        } else if (toEntry == null) {
+            visitAddedRemoved(fromJar, fromEntry, memberPattern, "removed", stats, changes);
+        } else {
+            stats.classesCompared.incrementAndGet();
+            byte[] fromBytes, toBytes;
+            try {
+                fromBytes = fromJar.getBytes(fromEntry);
+                toBytes = toJar.getBytes(toEntry);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            stats.bytesRead.addAndGet(fromBytes.length + toBytes.length);
+            // the central directory gives us the size and CRC of each entry, only check the contents if those match
+            if (fromEntry.getSize() == toEntry.getSize() && fromEntry.getCrc() == toEntry.getCrc() && Arrays.equals(fromBytes, toBytes)) {
+                // identical classes can't have any changes, but the patterns still need to know which members exist
+                stats.classesSkipped.incrementAndGet();
+                if (memberPattern.tracksUsage()) {
+                    markUsed(new ClassReader(fromBytes), memberPattern);
+                }
+                return;
+            }
+            ClassNode fromClass = parseClass(fromBytes, className, fromClasses, memberPattern);
+            ClassNode toClass = parseClass(toBytes, className, toClasses, memberPattern);
+            compareClasses(fromClass, toClass, memberPattern, changes);
+        }
+    }
+
+    /**
+     * Compares a class using the results of earlier comparisons, which are replayed unless the pattern watches methods
+     * whose code hasn't been compared yet.
+     */
+    private static void compareClass(MappedJar fromJar, MappedJar toJar, String className, MemberPattern memberPattern, ResultCache results, Stats stats, Consumer<Change> changes) {
+        ResultCache.ClassResult result = results.get(className);
+        if (result != null && !result.isMissingMethods(memberPattern)) {
+            stats.classesCached.incrementAndGet();
+        } else {
+            result = compareClass(fromJar, toJar, className, memberPattern, result, stats);
+            results.put(className, result);
+        }
+        result.replay(memberPattern, changes);
+    }
+
+    /**
+     * Compares a class for the result cache. Like the uncached comparison, only the code of watched methods is
+     * compared, and methods known from the previous result aren't compared again.
+     */
+    private static ResultCache.ClassResult compareClass(MappedJar fromJar, MappedJar toJar, String className, MemberPattern memberPattern, ResultCache.ClassResult previous, Stats stats) {
+        MappedJar.Entry fromEntry = fromJar.getEntry(className + ".class");
+        MappedJar.Entry toEntry = toJar.getEntry(className + ".class");
+        if (fromEntry == null && toEntry == null) {
+            return new ResultCache.ClassResult(className, ResultCache.ABSENT, Collections.emptyList(), Collections.emptyList());
+        }
+        if (fromEntry == null || toEntry == null) {
+            byte status = fromEntry == null ? ResultCache.ADDED : ResultCache.REMOVED;
+            byte[] bytes = fromEntry == null ? getBytes(toJar, toEntry) : getBytes(fromJar, fromEntry);
+            stats.bytesRead.addAndGet(bytes.length);
+            ClassNode node = new ClassNode();
+            new ClassReader(bytes).accept(node, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return newClassResult(node, status);
+        }
+
+        stats.classesCompared.incrementAndGet();
+        byte[] fromBytes = getBytes(fromJar, fromEntry);
+        byte[] toBytes = getBytes(toJar, toEntry);
+        stats.bytesRead.addAndGet(fromBytes.length + toBytes.length);
+        if (fromEntry.getSize() == toEntry.getSize() && fromEntry.getCrc() == toEntry.getCrc() && Arrays.equals(fromBytes, toBytes)) {
+            stats.classesSkipped.incrementAndGet();
+            ClassNode node = new ClassNode();
+            new ClassReader(fromBytes).accept(node, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return newClassResult(node, ResultCache.UNCHANGED);
+        }
+
+        Map<String, Byte> knownMethods = new HashMap<>();
+        if (previous != null) {
+            for (ResultCache.MemberResult method : previous.getMethods()) {
+                if (method.getStatus() != ResultCache.UNKNOWN) {
+                    knownMethods.put(method.getName() + method.getDesc(), method.getStatus());
+                }
+            }
+        }
+        ResultClassNode fromClass = new ResultClassNode(memberPattern, knownMethods);
+        ResultClassNode toClass = new ResultClassNode(memberPattern, knownMethods);
+        new ClassReader(fromBytes).accept(fromClass, ClassReader.SKIP_FRAMES);
+        new ClassReader(toBytes).accept(toClass, ClassReader.SKIP_FRAMES);
+
+        // the members are listed just as compareClasses reports them
+        List<ResultCache.MemberResult> fields = new ArrayList<>();
+        Map<String, FieldNode> fromFields = new LinkedHashMap<>();
+        Map<String, FieldNode> toFields = new LinkedHashMap<>();
+        for (FieldNode field : fromClass.fields) {
+            fromFields.put(field.name, field);
+        }
+        for (FieldNode field : toClass.fields) {
+            toFields.put(field.name, field);
+        }
+        for (FieldNode fromField : fromFields.values()) {
+            FieldNode toField = toFields.get(fromField.name);
+            byte status = toField == null ? ResultCache.REMOVED : hasFieldChanged(fromField, toField) ? ResultCache.CHANGED : ResultCache.UNCHANGED;
+            fields.add(new ResultCache.MemberResult(fromField.name, fromField.desc, status));
+        }
+        for (FieldNode toField : toFields.values()) {
+            if (!fromFields.containsKey(toField.name)) {
+                fields.add(new ResultCache.MemberResult(toField.name, toField.desc, ResultCache.ADDED));
+            }
+        }
+
+        List<ResultCache.MemberResult> methods = new ArrayList<>();
+        Map<String, MethodNode> fromMethods = new LinkedHashMap<>();
+        Map<String, MethodNode> toMethods = new LinkedHashMap<>();
+        for (MethodNode method : fromClass.methods) {
+            fromMethods.put(method.name + method.desc, method);
+        }
+        for (MethodNode method : toClass.methods) {
+            toMethods.put(method.name + method.desc, method);
+        }
+        for (MethodNode fromMethod : fromMethods.values()) {
+            MethodNode toMethod = toMethods.get(fromMethod.name + fromMethod.desc);
+            byte status;
+            if (toMethod == null) {
+                status = ResultCache.REMOVED;
+            } else if (fromClass.isCompared(fromMethod) && toClass.isCompared(toMethod)) {
+                status = hasMethodChanged(fromMethod, toMethod) ? ResultCache.CHANGED : ResultCache.UNCHANGED;
+            } else {
+                status = knownMethods.getOrDefault(fromMethod.name + fromMethod.desc, ResultCache.UNKNOWN);
+            }
+            methods.add(new ResultCache.MemberResult(fromMethod.name, fromMethod.desc, status));
+        }
+        for (MethodNode toMethod : toMethods.values()) {
+            if (!fromMethods.containsKey(toMethod.name + toMethod.desc)) {
+                methods.add(new ResultCache.MemberResult(toMethod.name, toMethod.desc, ResultCache.ADDED));
+            }
+        }
+        return new ResultCache.ClassResult(className, ResultCache.PRESENT, fields, methods);
+    }
+
+    /**
+     * Returns the result of a class whose members all have the same status.
+     */
+    private static ResultCache.ClassResult newClassResult(ClassNode node, byte status) {
+        List<ResultCache.MemberResult> fields = new ArrayList<>();
+        for (FieldNode field : node.fields) {
+            fields.add(new ResultCache.MemberResult(field.name, field.desc, status));
+        }
+        List<ResultCache.MemberResult> methods = new ArrayList<>();
+        for (MethodNode method : node.methods) {
+            methods.add(new ResultCache.MemberResult(method.name, method.desc, status));
+        }
+        return new ResultCache.ClassResult(node.name, status == ResultCache.UNCHANGED ? ResultCache.PRESENT : status, fields, methods);
+    }
+
+    private static byte[] getBytes(MappedJar jar, MappedJar.Entry entry) {
+        try {
+            return jar.getBytes(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ClassNode parseClass(byte[] bytes, String className, ParsedClasses parsedClasses, MemberPattern memberPattern) {
+        if (parsedClasses != null) {
+            return parsedClasses.classes.computeIfAbsent(className, k -> parseClass(bytes, k, null, memberPattern));
+        }
+        ClassNode node = new WatchedClassNode(memberPattern);
+        new ClassReader(bytes).accept(node, ClassReader.SKIP_FRAMES);
+        return node;
+    }
+
+    private static void markUsed(ClassReader reader, MemberPattern memberPattern) {
+        String className = reader.getClassName();
+        reader.accept(new ClassVisitor(Opcodes.ASM8) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                memberPattern.matchesField(className, name, descriptor);
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                memberPattern.matchesMethod(className, name, descriptor);
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+
+    private static void visitAddedRemoved(MappedJar jar, MappedJar.Entry entry, MemberPattern memberPattern, String action, Stats stats, Consumer<Change> changes) {
+        byte[] bytes;
         try {
-            reader = new ClassReader(jar.getInputStream(entry));
+            bytes = jar.getBytes(entry);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        stats.bytesRead.addAndGet(bytes.length);
+        ClassReader reader = new ClassReader(bytes);
         ClassNode node = new ClassNode();
-        reader.accept(node, ClassReader.SKIP_FRAMES);
+        // only the member names are needed here
+        reader.accept(node, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
 
-        outputLog.accept("Class " + intermediary2Yarn.map(node.name) + " was " + action);
+        changes.accept(Change.ofClass(node.name, action));
 
         if (node.fields != null) {
             for (FieldNode field : node.fields) {
-                if (memberPattern.matchesField(node.name, field)) {
-                    outputLog.accept("Field " + intermediary2Yarn.map(node.name) + "." + intermediary2Yarn.mapFieldName(node.name, field.name, field.desc) + " was " + action);
+                if (memberPattern.matchesField(node.name, field.name, field.desc)) {
+                    changes.accept(Change.ofField(node.name, field.name, field.desc, action));
                 }
             }
         }
 
         if (node.methods != null) {
             for (MethodNode method : node.methods) {
-                if (memberPattern.matchesMethod(node.name, method)) {
-                    outputLog.accept("Method " + intermediary2Yarn.map(node.name) + "." + intermediary2Yarn.mapMethodName(node.name, method.name, method.desc) + intermediary2Yarn.mapMethodDesc(method.desc) + " was " + action);
+                if (memberPattern.matchesMethod(node.name, method.name, method.desc)) {
+                    changes.accept(Change.ofMethod(node.name, method.name, method.desc, action));
                 }
             }
         }
     }
 
-    private static void compareClasses(ClassNode fromClass, ClassNode toClass, MemberPattern memberPattern, Remapper intermediary2Yarn, Consumer<String> outputLog) {
+    private static void visitAddedRemoved(FingerprintIndex.ClassFingerprint clazz, MemberPattern memberPattern, String action, Consumer<Change> changes) {
+        changes.accept(Change.ofClass(clazz.getName(), action));
+
+        for (FingerprintIndex.MemberFingerprint field : clazz.getFields()) {
+            if (memberPattern.matchesField(clazz.getName(), field.getName(), field.getDesc())) {
+                changes.accept(Change.ofField(clazz.getName(), field.getName(), field.getDesc(), action));
+            }
+        }
+
+        for (FingerprintIndex.MemberFingerprint method : clazz.getMethods()) {
+            if (memberPattern.matchesMethod(clazz.getName(), method.getName(), method.getDesc())) {
+                changes.accept(Change.ofMethod(clazz.getName(), method.getName(), method.getDesc(), action));
+            }
+        }
+    }
+
+    private static void compareClasses(FingerprintIndex.ClassFingerprint fromClass, FingerprintIndex.ClassFingerprint toClass, MemberPattern memberPattern, Consumer<Change> changes) {
+        String className = fromClass.getName();
+
+        Map<String, FingerprintIndex.MemberFingerprint> fromFields = new LinkedHashMap<>();
+        Map<String, FingerprintIndex.MemberFingerprint> toFields = new LinkedHashMap<>();
+        for (FingerprintIndex.MemberFingerprint field : fromClass.getFields()) {
+            fromFields.put(field.getName(), field);
+        }
+        for (FingerprintIndex.MemberFingerprint field : toClass.getFields()) {
+            toFields.put(field.getName(), field);
+        }
+        for (FingerprintIndex.MemberFingerprint fromField : fromFields.values()) {
+            if (memberPattern.matchesField(className, fromField.getName(), fromField.getDesc())) {
+                FingerprintIndex.MemberFingerprint toField = toFields.get(fromField.getName());
+                if (toField != null) {
+                    if (fromField.getHash() != toField.getHash()) {
+                        changes.accept(Change.ofField(className, fromField.getName(), fromField.getDesc(), "changed"));
+                    }
+                } else {
+                    changes.accept(Change.ofField(className, fromField.getName(), fromField.getDesc(), "removed"));
+                }
+            }
+        }
+        for (FingerprintIndex.MemberFingerprint toField : toFields.values()) {
+            if (!fromFields.containsKey(toField.getName())) {
+                if (memberPattern.matchesField(className, toField.getName(), toField.getDesc())) {
+                    changes.accept(Change.ofField(className, toField.getName(), toField.getDesc(), "added"));
+                }
+            }
+        }
+
+        Map<String, FingerprintIndex.MemberFingerprint> fromMethods = new LinkedHashMap<>();
+        Map<String, FingerprintIndex.MemberFingerprint> toMethods = new LinkedHashMap<>();
+        for (FingerprintIndex.MemberFingerprint method : fromClass.getMethods()) {
+            fromMethods.put(method.getName() + method.getDesc(), method);
+        }
+        for (FingerprintIndex.MemberFingerprint method : toClass.getMethods()) {
+            toMethods.put(method.getName() + method.getDesc(), method);
+        }
+        for (FingerprintIndex.MemberFingerprint fromMethod : fromMethods.values()) {
+            if (memberPattern.matchesMethod(className, fromMethod.getName(), fromMethod.getDesc())) {
+                FingerprintIndex.MemberFingerprint toMethod = toMethods.get(fromMethod.getName() + fromMethod.getDesc());
+                if (toMethod != null) {
+                    if (fromMethod.getHash() != toMethod.getHash()) {
+                        changes.accept(Change.ofMethod(className, fromMethod.getName(), fromMethod.getDesc(), "changed"));
+                    }
+                } else {
+                    changes.accept(Change.ofMethod(className, fromMethod.getName(), fromMethod.getDesc(), "removed"));
+                }
+            }
+        }
+        for (FingerprintIndex.MemberFingerprint toMethod : toMethods.values()) {
+            if (!fromMethods.containsKey(toMethod.getName() + toMethod.getDesc())) {
+                if (memberPattern.matchesMethod(className, toMethod.getName(), toMethod.getDesc())) {
+                    changes.accept(Change.ofMethod(className, toMethod.getName(), toMethod.getDesc(), "added"));
+                }
+            }
+        }
+    }
+
+    static void compareClasses(ClassNode fromClass, ClassNode toClass, MemberPattern memberPattern, Consumer<Change> changes) {
         Map<String, FieldNode> fromFields = new LinkedHashMap<>();
         Map<String, FieldNode> toFields = new LinkedHashMap<>();
         if (fromClass.fields != null) {
@@ -107,20 +599,20 @@ public class JarComparer {
             }
         }
         for (FieldNode fromField : fromFields.values()) {
-            if (memberPattern.matchesField(fromClass.name, fromField)) {
+            if (memberPattern.matchesField(fromClass.name, fromField.name, fromField.desc)) {
                 if (toFields.containsKey(fromField.name)) {
                     if (hasFieldChanged(fromField, toFields.get(fromField.name))) {
-                        outputLog.accept("Field " + intermediary2Yarn.map(fromClass.name) + "." + intermediary2Yarn.mapFieldName(fromClass.name, fromField.name, fromField.desc) + " was changed");
+                        changes.accept(Change.ofField(fromClass.name, fromField.name, fromField.desc, "changed"));
                     }
                 } else {
-                    outputLog.accept("Field " + intermediary2Yarn.map(fromClass.name) + "." + intermediary2Yarn.mapFieldName(fromClass.name, fromField.name, fromField.desc) + " was removed");
+                    changes.accept(Change.ofField(fromClass.name, fromField.name, fromField.desc, "removed"));
                 }
             }
         }
         for (FieldNode toField : toFields.values()) {
             if (!fromFields.containsKey(toField.name)) {
-                if (memberPattern.matchesField(fromClass.name, toField)) {
-                    outputLog.accept("Field " + intermediary2Yarn.map(toClass.name) + "." + intermediary2Yarn.mapFieldName(toClass.name, toField.name, toField.desc) + " was added");
+                if (memberPattern.matchesField(fromClass.name, toField.name, toField.desc)) {
+                    changes.accept(Change.ofField(toClass.name, toField.name, toField.desc, "added"));
                 }
             }
         }
@@ -138,20 +630,20 @@ public class JarComparer {
             }
         }
         for (MethodNode fromMethod : fromMethods.values()) {
-            if (memberPattern.matchesMethod(fromClass.name, fromMethod)) {
+            if (memberPattern.matchesMethod(fromClass.name, fromMethod.name, fromMethod.desc)) {
                 if (toMethods.containsKey(fromMethod.name + fromMethod.desc)) {
                     if (hasMethodChanged(fromMethod, toMethods.get(fromMethod.name + fromMethod.desc))) {
-                        outputLog.accept("Method " + intermediary2Yarn.map(fromClass.name) + "." + intermediary2Yarn.mapMethodName(fromClass.name, fromMethod.name, fromMethod.desc) + intermediary2Yarn.mapMethodDesc(fromMethod.desc) + " was changed");
+                        changes.accept(Change.ofMethod(fromClass.name, fromMethod.name, fromMethod.desc, "changed"));
                     }
                 } else {
-                    outputLog.accept("Method " + intermediary2Yarn.map(fromClass.name) + "." + intermediary2Yarn.mapMethodName(fromClass.name, fromMethod.name, fromMethod.desc) + intermediary2Yarn.mapMethodDesc(fromMethod.desc) + " was removed");
+                    changes.accept(Change.ofMethod(fromClass.name, fromMethod.name, fromMethod.desc, "removed"));
                 }
             }
         }
         for (MethodNode toMethod : toMethods.values()) {
             if (!fromMethods.containsKey(toMethod.name + toMethod.desc)) {
-                if (memberPattern.matchesMethod(fromClass.name, toMethod)) {
-                    outputLog.accept("Method " + intermediary2Yarn.map(toClass.name) + "." + intermediary2Yarn.mapMethodName(toClass.name, toMethod.name, toMethod.desc) + intermediary2Yarn.mapMethodDesc(toMethod.desc) + " was added");
+                if (memberPattern.matchesMethod(fromClass.name, toMethod.name, toMethod.desc)) {
+                    changes.accept(Change.ofMethod(toClass.name, toMethod.name, toMethod.desc, "added"));
                 }
             }
         }
@@ -300,6 +792,13 @@ public class JarComparer {
             }
             return false;
         }
+        if (fromVal instanceof Object[]) {
+            // enum values are stored as {desc, value} arrays
+            if (!(toVal instanceof Object[])) {
+                return true;
+            }
+            return hasAnnotationValueChanged(Arrays.asList((Object[]) fromVal), Arrays.asList((Object[]) toVal));
+        }
         if (fromVal instanceof AnnotationNode) {
             if (!(toVal instanceof AnnotationNode)) {
                 return true;
@@ -310,7 +809,7 @@ public class JarComparer {
         return !fromVal.equals(toVal);
     }
 
-    private static boolean haveInstructionsChanged(InsnList fromInstructions, InsnList toInstructions) {
+    static boolean haveInstructionsChanged(InsnList fromInstructions, InsnList toInstructions) {
         if (fromInstructions == null && toInstructions == null) {
             return false;
         }
@@ -318,17 +817,21 @@ public class JarComparer {
             return true;
         }
 
-        // store label indices to test label equivalence
-        Map<LabelNode, Integer> fromLabelIndices = new HashMap<>();
-        Map<LabelNode, Integer> toLabelIndices = new HashMap<>();
-        List<JumpInsnNode> fromJumps = new ArrayList<>();
-        List<JumpInsnNode> toJumps = new ArrayList<>();
-        List<TableSwitchInsnNode> fromTableSwitches = new ArrayList<>();
-        List<TableSwitchInsnNode> toTableSwitches = new ArrayList<>();
-        List<LookupSwitchInsnNode> fromLookupSwitches = new ArrayList<>();
-        List<LookupSwitchInsnNode> toLookupSwitches = new ArrayList<>();
+        // Labels are numbered in the order they are first encountered, either as a label node or as the target of a jump
+        // or switch. Two labels are equivalent if they are given the same number, which means they are at the same
+        // instruction index, so labels can be checked as soon as they are seen rather than in a second pass.
+        LabelNumbering[] labelNumberings = LABEL_NUMBERINGS.get();
+        LabelNumbering fromLabels = labelNumberings[0];
+        LabelNumbering toLabels = labelNumberings[1];
+        try {
+            return haveInstructionsChanged(fromInstructions, toInstructions, fromLabels, toLabels);
+        } finally {
+            fromLabels.clear();
+            toLabels.clear();
+        }
+    }
 
-        int insnIndex = 0;
+    private static boolean haveInstructionsChanged(InsnList fromInstructions, InsnList toInstructions, LabelNumbering fromLabels, LabelNumbering toLabels) {
         AbstractInsnNode fromInsn = fromInstructions.getFirst();
         AbstractInsnNode toInsn = toInstructions.getFirst();
         instructionLoop: while (fromInsn != null) {
@@ -350,8 +853,6 @@ public class JarComparer {
             }
 
             // we are now comparing two instruction nodes which should be the same
-            insnIndex++;
-
             if (fromInsn.getOpcode() != toInsn.getOpcode()) {
                 return true;
             }
@@ -450,13 +951,15 @@ public class JarComparer {
                     break;
                 }
                 case AbstractInsnNode.JUMP_INSN: {
-                    fromJumps.add((JumpInsnNode) fromInsn);
-                    toJumps.add((JumpInsnNode) toInsn);
+                    if (fromLabels.number(((JumpInsnNode) fromInsn).label) != toLabels.number(((JumpInsnNode) toInsn).label)) {
+                        return true;
+                    }
                     break;
                 }
                 case AbstractInsnNode.LABEL: {
-                    fromLabelIndices.put((LabelNode) fromInsn, insnIndex);
-                    toLabelIndices.put((LabelNode) toInsn, insnIndex);
+                    if (fromLabels.number((LabelNode) fromInsn) != toLabels.number((LabelNode) toInsn)) {
+                        return true;
+                    }
                     break;
                 }
                 case AbstractInsnNode.LDC_INSN: {
@@ -487,21 +990,25 @@ public class JarComparer {
                     if (fromI.max != toI.max) {
                         return true;
                     }
-                    if (fromI.labels.size() != toI.labels.size()) {
+                    if (haveSwitchLabelsChanged(fromI.dflt, fromI.labels, toI.dflt, toI.labels, fromLabels, toLabels)) {
                         return true;
                     }
-                    fromTableSwitches.add(fromI);
-                    toTableSwitches.add(toI);
                     break;
                 }
                 case AbstractInsnNode.LOOKUPSWITCH_INSN: {
                     LookupSwitchInsnNode fromI = (LookupSwitchInsnNode) fromInsn;
                     LookupSwitchInsnNode toI = (LookupSwitchInsnNode) toInsn;
-                    if (!fromI.keys.equals(toI.keys)) {
+                    if (fromI.keys.size() != toI.keys.size()) {
+                        return true;
+                    }
+                    for (int i = 0; i < fromI.keys.size(); i++) {
+                        if (fromI.keys.get(i).intValue() != toI.keys.get(i).intValue()) {
+                            return true;
+                        }
+                    }
+                    if (haveSwitchLabelsChanged(fromI.dflt, fromI.labels, toI.dflt, toI.labels, fromLabels, toLabels)) {
                         return true;
                     }
-                    fromLookupSwitches.add(fromI);
-                    toLookupSwitches.add(toI);
                     break;
                 }
                 case AbstractInsnNode.MULTIANEWARRAY_INSN: {
@@ -530,43 +1037,277 @@ public class JarComparer {
             return true;
         }
 
-        // check labels against label indices
-        for (int i = 0; i < fromJumps.size(); i++) {
-            JumpInsnNode fromI = fromJumps.get(i);
-            JumpInsnNode toI = toJumps.get(i);
-            if (!fromLabelIndices.get(fromI.label).equals(toLabelIndices.get(toI.label))) {
+        return false;
+    }
+
+    private static boolean haveSwitchLabelsChanged(LabelNode fromDflt, List<LabelNode> fromLabelNodes, LabelNode toDflt, List<LabelNode> toLabelNodes, LabelNumbering fromLabels, LabelNumbering toLabels) {
+        if (fromLabels.number(fromDflt) != toLabels.number(toDflt)) {
+            return true;
+        }
+        if (fromLabelNodes.size() != toLabelNodes.size()) {
+            return true;
+        }
+        for (int i = 0; i < fromLabelNodes.size(); i++) {
+            if (fromLabels.number(fromLabelNodes.get(i)) != toLabels.number(toLabelNodes.get(i))) {
                 return true;
             }
         }
-        for (int i = 0; i < fromTableSwitches.size(); i++) {
-            TableSwitchInsnNode fromI = fromTableSwitches.get(i);
-            TableSwitchInsnNode toI = toTableSwitches.get(i);
-            if (!fromLabelIndices.get(fromI.dflt).equals(toLabelIndices.get(toI.dflt))) {
-                return true;
+        return false;
+    }
+
+    static boolean isInstructionIgnored(AbstractInsnNode insn) {
+        return insn.getOpcode() == -1 && insn.getType() != AbstractInsnNode.LABEL;
+    }
+
+    private static final ThreadLocal<LabelNumbering[]> LABEL_NUMBERINGS = ThreadLocal.withInitial(() -> new LabelNumbering[] {new LabelNumbering(), new LabelNumbering()});
+
+    /**
+     * An identity hash table from labels to the order they were first seen in, which is reused between methods so
+     * that comparing instructions doesn't allocate.
+     */
+    private static class LabelNumbering {
+        private LabelNode[] labels = new LabelNode[64];
+        private int[] numbers = new int[64];
+        // the slots in use, in numbering order, so that clearing doesn't have to scan the whole table
+        private int[] usedSlots = new int[32];
+        private int size;
+
+        int number(LabelNode label) {
+            int mask = labels.length - 1;
+            int slot = System.identityHashCode(label) & mask;
+            while (labels[slot] != null) {
+                if (labels[slot] == label) {
+                    return numbers[slot];
+                }
+                slot = (slot + 1) & mask;
             }
-            for (int j = 0; j < fromI.labels.size(); j++) {
-                if (!fromLabelIndices.get(fromI.labels.get(j)).equals(toLabelIndices.get(toI.labels.get(j)))) {
-                    return true;
+
+            labels[slot] = label;
+            numbers[slot] = size;
+            usedSlots[size] = slot;
+            if (++size == usedSlots.length) {
+                grow();
+            }
+            return size - 1;
+        }
+
+        private void grow() {
+            LabelNode[] oldLabels = labels;
+            int[] oldNumbers = numbers;
+            labels = new LabelNode[oldLabels.length * 2];
+            numbers = new int[oldNumbers.length * 2];
+            usedSlots = new int[usedSlots.length * 2];
+            int mask = labels.length - 1;
+            for (int i = 0; i < oldLabels.length; i++) {
+                if (oldLabels[i] != null) {
+                    int slot = System.identityHashCode(oldLabels[i]) & mask;
+                    while (labels[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    labels[slot] = oldLabels[i];
+                    numbers[slot] = oldNumbers[i];
+                    usedSlots[oldNumbers[i]] = slot;
                 }
             }
         }
-        for (int i = 0; i < fromLookupSwitches.size(); i++) {
-            LookupSwitchInsnNode fromI = fromLookupSwitches.get(i);
-            LookupSwitchInsnNode toI = toLookupSwitches.get(i);
-            if (!fromLabelIndices.get(fromI.dflt).equals(toLabelIndices.get(toI.dflt))) {
-                return true;
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                labels[usedSlots[i]] = null;
             }
-            for (int j = 0; j < fromI.labels.size(); j++) {
-                if (!fromLabelIndices.get(fromI.labels.get(j)).equals(toLabelIndices.get(toI.labels.get(j)))) {
+            size = 0;
+        }
+    }
+
+    /**
+     * A class node which only builds the methods that the member pattern is watching, since the code of every other
+     * method will never be compared. Fields are cheap and are matched by name, so they are all kept.
+     */
+    private static class WatchedClassNode extends ClassNode {
+        private final MemberPattern memberPattern;
+
+        private WatchedClassNode(MemberPattern memberPattern) {
+            super(Opcodes.ASM8);
+            this.memberPattern = memberPattern;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            if (!memberPattern.matchesMethod(this.name, name, descriptor)) {
+                return null;
+            }
+            return super.visitMethod(access, name, descriptor, signature, exceptions);
+        }
+    }
+
+    /**
+     * A class, field or method which was added, removed or changed, named in intermediary.
+     */
+    public static class Change {
+        public enum Kind {
+            CLASS, FIELD, METHOD
+        }
+
+        private final Kind kind;
+        private final String className;
+        private final String name;
+        private final String desc;
+        private final String action;
+
+        private Change(Kind kind, String className, String name, String desc, String action) {
+            this.kind = kind;
+            this.className = className;
+            this.name = name;
+            this.desc = desc;
+            this.action = action;
+        }
+
+        static Change ofClass(String className, String action) {
+            return new Change(Kind.CLASS, className, null, null, action);
+        }
+
+        static Change ofField(String className, String name, String desc, String action) {
+            return new Change(Kind.FIELD, className, name, desc, action);
+        }
+
+        static Change ofMethod(String className, String name, String desc, String action) {
+            return new Change(Kind.METHOD, className, name, desc, action);
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * Returns the name of the member, or null if this is a class change.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getDesc() {
+            return desc;
+        }
+
+        /**
+         * Returns "added", "removed" or "changed".
+         */
+        public String getAction() {
+            return action;
+        }
+
+        /**
+         * Returns what changed without how it changed, the same for every change to the same class or member.
+         */
+        public String getTarget() {
+            return kind == Kind.CLASS ? className : className + "." + name + desc;
+        }
+
+        /**
+         * Returns whether a config watching the class of this change also watches this member.
+         */
+        public boolean isWatchedBy(MemberPattern memberPattern) {
+            switch (kind) {
+                case FIELD:
+                    return memberPattern.matchesField(className, name, desc);
+                case METHOD:
+                    return memberPattern.matchesMethod(className, name, desc);
+                default:
                     return true;
-                }
             }
         }
 
-        return false;
+        public String describe(Remapper intermediary2Yarn) {
+            switch (kind) {
+                case FIELD:
+                    return "Field " + intermediary2Yarn.map(className) + "." + intermediary2Yarn.mapFieldName(className, name, desc) + " was " + action;
+                case METHOD:
+                    return "Method " + intermediary2Yarn.map(className) + "." + intermediary2Yarn.mapMethodName(className, name, desc) + intermediary2Yarn.mapMethodDesc(desc) + " was " + action;
+                default:
+                    return "Class " + intermediary2Yarn.map(className) + " was " + action;
+            }
+        }
     }
 
-    private static boolean isInstructionIgnored(AbstractInsnNode insn) {
-        return insn.getOpcode() == -1 && insn.getType() != AbstractInsnNode.LABEL;
+    /**
+     * The classes parsed from a jar while comparing it, which can be reused when comparing it again with the same
+     * member patterns. In a chain of versions, each version is compared with the one before it and the one after it,
+     * and this lets the second comparison reuse the classes parsed by the first.
+     */
+    public static class ParsedClasses {
+        private final Map<String, ClassNode> classes = new ConcurrentHashMap<>();
+    }
+
+    @FunctionalInterface
+    private interface ClassesComparer {
+        Stats compare(Collection<String> classNames, MemberPattern memberPattern, Consumer<Change> changes);
+    }
+
+    /**
+     * A class node for the result cache, which builds the methods that the member pattern is watching and whose
+     * results aren't already known. Every other method is kept without its code, so that it is still listed.
+     */
+    private static class ResultClassNode extends ClassNode {
+        private final MemberPattern memberPattern;
+        private final Map<String, Byte> knownMethods;
+        private final Set<MethodNode> comparedMethods = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private ResultClassNode(MemberPattern memberPattern, Map<String, Byte> knownMethods) {
+            super(Opcodes.ASM8);
+            this.memberPattern = memberPattern;
+            this.knownMethods = knownMethods;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            if (memberPattern.matchesMethod(this.name, name, descriptor) && !knownMethods.containsKey(name + descriptor)) {
+                MethodNode method = (MethodNode) super.visitMethod(access, name, descriptor, signature, exceptions);
+                comparedMethods.add(method);
+                return method;
+            }
+            methods.add(new MethodNode(Opcodes.ASM8, access, name, descriptor, signature, exceptions));
+            return null;
+        }
+
+        private boolean isCompared(MethodNode method) {
+            return comparedMethods.contains(method);
+        }
+    }
+
+    public static class Stats {
+        private final AtomicInteger classesCompared = new AtomicInteger();
+        private final AtomicInteger classesSkipped = new AtomicInteger();
+        private final AtomicInteger classesCached = new AtomicInteger();
+        private final AtomicLong bytesRead = new AtomicLong();
+
+        public int getClassesCompared() {
+            return classesCompared.get();
+        }
+
+        public int getClassesSkipped() {
+            return classesSkipped.get();
+        }
+
+        /**
+         * Returns the number of classes whose results were reused from the result cache, rather than compared.
+         */
+        public int getClassesCached() {
+            return classesCached.get();
+        }
+
+        public long getBytesRead() {
+            return bytesRead.get();
+        }
+
+        public void add(Stats other) {
+            classesCompared.addAndGet(other.getClassesCompared());
+            classesSkipped.addAndGet(other.getClassesSkipped());
+            classesCached.addAndGet(other.getClassesCached());
+            bytesRead.addAndGet(other.getBytesRead());
+        }
     }
 }
@@ -0,0 +1,183 @@
+package net.earthcomputer.musicalcode;
+
+import net.fabricmc.stitch.merge.ClassMerger;
+import net.fabricmc.tinyremapper.IMappingProvider;
+import net.fabricmc.tinyremapper.TinyRemapper;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Merges and remaps jars in memory, as maps from internal class names to class bytes. Nothing is cached between the
+ * merge and the remap, so the only jar kept is the remapped one.
+ */
+public final class JarPipeline {
+    private JarPipeline() {
+    }
+
+    /**
+     * Merges the classes of the client and server jars the way stitch does. Classes in both jars are merged member by
+     * member, and classes in only one are annotated with the side they are on.
+     */
+    public static Map<String, byte[]> merge(File clientJar, File serverJar) {
+        Map<String, byte[]> clientClasses = readClasses(clientJar, name -> true);
+        // the server jar bundles its libraries, which aren't part of the game
+        Map<String, byte[]> serverClasses = readClasses(serverJar, name -> clientClasses.containsKey(name) || name.indexOf('/') == -1 || name.startsWith("net/minecraft/"));
+
+        ClassMerger merger = new ClassMerger();
+        Map<String, byte[]> merged = new TreeMap<>();
+        for (Map.Entry<String, byte[]> clientClass : clientClasses.entrySet()) {
+            byte[] clientBytes = clientClass.getValue();
+            byte[] serverBytes = serverClasses.get(clientClass.getKey());
+            if (serverBytes == null) {
+                merged.put(clientClass.getKey(), addSide(clientBytes, "CLIENT"));
+            } else if (Arrays.equals(clientBytes, serverBytes)) {
+                merged.put(clientClass.getKey(), clientBytes);
+            } else {
+                merged.put(clientClass.getKey(), merger.merge(clientBytes, serverBytes));
+            }
+        }
+        for (Map.Entry<String, byte[]> serverClass : serverClasses.entrySet()) {
+            if (!clientClasses.containsKey(serverClass.getKey())) {
+                merged.put(serverClass.getKey(), addSide(serverClass.getValue(), "SERVER"));
+            }
+        }
+        return merged;
+    }
+
+    private static Map<String, byte[]> readClasses(File jarFile, Predicate<String> filter) {
+        try (MappedJar jar = MappedJar.open(jarFile)) {
+            Map<String, byte[]> classes = new TreeMap<>();
+            for (MappedJar.Entry entry : jar.getEntries()) {
+                String name = entry.getName();
+                if (name.endsWith(".class")) {
+                    name = name.substring(0, name.length() - 6);
+                    if (filter.test(name)) {
+                        classes.put(name, jar.getBytes(entry));
+                    }
+                }
+            }
+            return classes;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + jarFile, e);
+        }
+    }
+
+    private static byte[] addSide(byte[] bytes, String side) {
+        ClassReader reader = new ClassReader(bytes);
+        ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(new ClassVisitor(Opcodes.ASM8, writer) {
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                super.visit(version, access, name, signature, superName, interfaces);
+                AnnotationVisitor annotation = super.visitAnnotation("Lnet/fabricmc/api/Environment;", true);
+                annotation.visitEnum("value", "Lnet/fabricmc/api/EnvType;", side);
+                annotation.visitEnd();
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Remaps the given classes with tiny-remapper, returning them under their new names. tiny-remapper only reads jars,
+     * so the classes are written to temporary jars in {@code tempDir} first, which are deleted afterwards.
+     *
+     * @param classpath classes which the remapped classes may inherit from, but which aren't remapped themselves
+     */
+    public static Map<String, byte[]> remap(Map<String, byte[]> classes, Map<String, byte[]> classpath, IMappingProvider mappings, File tempDir) {
+        Path inputJar = null;
+        Path classpathJar = null;
+        try {
+            inputJar = Files.createTempFile(tempDir.toPath(), "tmp-", "-input.jar");
+            writeJar(classes, inputJar.toFile());
+            if (!classpath.isEmpty()) {
+                classpathJar = Files.createTempFile(tempDir.toPath(), "tmp-", "-classpath.jar");
+                writeJar(classpath, classpathJar.toFile());
+            }
+            return remap(inputJar, classpathJar, mappings);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create a temporary jar in " + tempDir, e);
+        } finally {
+            deleteQuietly(inputJar);
+            deleteQuietly(classpathJar);
+        }
+    }
+
+    /**
+     * Remaps the classes in a jar with tiny-remapper, returning them under their new names.
+     *
+     * @param classpath a jar of classes which the remapped classes may inherit from, or null
+     */
+    public static Map<String, byte[]> remap(Path jar, Path classpath, IMappingProvider mappings) {
+        TinyRemapper remapper = TinyRemapper.newRemapper()
+                .withMappings(mappings)
+                .build();
+        try {
+            remapper.readInputs(jar);
+            if (classpath != null) {
+                remapper.readClassPath(classpath);
+            }
+            // tiny-remapper writes its output from several threads
+            Map<String, byte[]> remapped = new TreeMap<>();
+            remapper.apply((name, bytes) -> {
+                synchronized (remapped) {
+                    remapped.put(name, bytes);
+                }
+            });
+            return remapped;
+        } finally {
+            remapper.finish();
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignore) {
+                // a leftover temporary file goes when its artifact is evicted
+            }
+        }
+    }
+
+    /**
+     * Writes classes to a jar, uncompressed so that {@link MappedJar} can read them without inflating.
+     */
+    public static void writeJar(Map<String, byte[]> classes, File output) {
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+            out.setMethod(ZipOutputStream.STORED);
+            CRC32 crc = new CRC32();
+            for (Map.Entry<String, byte[]> clazz : classes.entrySet()) {
+                byte[] bytes = clazz.getValue();
+                ZipEntry zipEntry = new ZipEntry(clazz.getKey() + ".class");
+                zipEntry.setSize(bytes.length);
+                zipEntry.setCompressedSize(bytes.length);
+                crc.reset();
+                crc.update(bytes);
+                zipEntry.setCrc(crc.getValue());
+                out.putNextEntry(zipEntry);
+                out.write(bytes);
+                out.closeEntry();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write " + output, e);
+        }
+    }
+}
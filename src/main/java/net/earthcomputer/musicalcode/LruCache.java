@@ -0,0 +1,69 @@
+package net.earthcomputer.musicalcode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A cache holding a fixed number of entries, which evicts the least recently used entry when it is full. Evicted and
+ * replaced values which are {@link AutoCloseable} are closed.
+ */
+public class LruCache<K, V> {
+    private final Map<K, V> map;
+
+    public LruCache(int maxEntries) {
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > maxEntries) {
+                    close(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        return map.get(key);
+    }
+
+    public synchronized void put(K key, V value) {
+        V old = map.put(key, value);
+        if (old != null && old != value) {
+            close(old);
+        }
+    }
+
+    public synchronized List<K> keys() {
+        return new ArrayList<>(map.keySet());
+    }
+
+    public synchronized List<V> values() {
+        return new ArrayList<>(map.values());
+    }
+
+    /**
+     * Returns the value for the given key, computing it while holding the cache if it isn't there.
+     */
+    public synchronized V computeIfAbsent(K key, Function<K, V> function) {
+        V value = map.get(key);
+        if (value == null) {
+            value = function.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    private static void close(Object value) {
+        if (value instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) value).close();
+            } catch (Exception e) {
+                System.err.println("Failed to close evicted " + value + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package net.earthcomputer.musicalcode;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Read-only access to a jar through a memory-mapped file and its pre-parsed central directory. Entries which are
+ * {@link ZipEntry#STORED} are copied straight out of the mapping, without any stream or inflater.
+ *
+ * <p>{@link #close} only closes the file channel. Java has no supported way to unmap a file, so the mapping stays until
+ * the buffer is garbage collected, and until then some systems, such as Windows, won't let the file be deleted or
+ * replaced. Deflated entries are inflated with one {@link Inflater} per thread, shared by every jar. It lives as long as
+ * its thread and is never {@link Inflater#end() ended}, so its native memory is only freed once the thread is gone and
+ * the inflater is garbage collected.</p>
+ */
+public class MappedJar implements Closeable {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final List<Entry> entries;
+    private final Map<String, Entry> entriesByName;
+
+    private MappedJar(File file, FileChannel channel, MappedByteBuffer buffer, List<Entry> entries) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.entries = Collections.unmodifiableList(entries);
+        this.entriesByName = new HashMap<>(entries.size() * 4 / 3 + 1);
+        for (Entry entry : entries) {
+            entriesByName.put(entry.name, entry);
+        }
+    }
+
+    public static MappedJar open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Jar too large to map: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new MappedJar(file, channel, buffer, readCentralDirectory(file, buffer));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static List<Entry> readCentralDirectory(File file, ByteBuffer buffer) throws IOException {
+        // the end of central directory record is followed by a comment of at most 65535 bytes
+        int eocd = -1;
+        int minEocd = Math.max(0, buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE - 0xffff);
+        for (int i = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; i >= minEocd; i--) {
+            if (buffer.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd == -1) {
+            throw new IOException("Not a zip file: " + file);
+        }
+
+        int entryCount = buffer.getShort(eocd + 10) & 0xffff;
+        long centralDirectoryOffset = buffer.getInt(eocd + 16) & 0xffffffffL;
+        if (entryCount == 0xffff || centralDirectoryOffset == 0xffffffffL) {
+            throw new IOException("Zip64 is not supported: " + file);
+        }
+
+        List<Entry> entries = new ArrayList<>(entryCount);
+        int offset = (int) centralDirectoryOffset;
+        for (int i = 0; i < entryCount; i++) {
+            if (buffer.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("Corrupt central directory in " + file);
+            }
+            int method = buffer.getShort(offset + 10) & 0xffff;
+            long crc = buffer.getInt(offset + 16) & 0xffffffffL;
+            int compressedSize = buffer.getInt(offset + 20);
+            int size = buffer.getInt(offset + 24);
+            int nameLength = buffer.getShort(offset + 28) & 0xffff;
+            int extraLength = buffer.getShort(offset + 30) & 0xffff;
+            int commentLength = buffer.getShort(offset + 32) & 0xffff;
+            int localHeaderOffset = buffer.getInt(offset + 42);
+            byte[] nameBytes = new byte[nameLength];
+            for (int j = 0; j < nameLength; j++) {
+                nameBytes[j] = buffer.get(offset + 46 + j);
+            }
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if (!name.endsWith("/")) {
+                entries.add(new Entry(name, method, crc, compressedSize, size, localHeaderOffset));
+            }
+            offset += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries;
+    }
+
+    public Entry getEntry(String name) {
+        return entriesByName.get(name);
+    }
+
+    public byte[] getBytes(Entry entry) throws IOException {
+        int localHeader = entry.localHeaderOffset;
+        if (buffer.getInt(localHeader) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Corrupt local header for " + entry.name + " in " + file);
+        }
+        // the local extra field can differ from the one in the central directory
+        int dataOffset = localHeader + 30 + (buffer.getShort(localHeader + 26) & 0xffff) + (buffer.getShort(localHeader + 28) & 0xffff);
+        ByteBuffer data = buffer.duplicate();
+        data.position(dataOffset);
+
+        byte[] bytes = new byte[entry.size];
+        if (entry.method == ZipEntry.STORED) {
+            data.get(bytes);
+        } else if (entry.method == ZipEntry.DEFLATED) {
+            byte[] compressed = new byte[entry.compressedSize];
+            data.get(compressed);
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(compressed);
+            try {
+                int read = 0;
+                while (read < bytes.length) {
+                    int n = inflater.inflate(bytes, read, bytes.length - read);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated entry " + entry.name + " in " + file);
+                    }
+                    read += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt entry " + entry.name + " in " + file, e);
+            }
+        } else {
+            throw new IOException("Unsupported compression method " + entry.method + " for " + entry.name + " in " + file);
+        }
+        return bytes;
+    }
+
+    /**
+     * Closes the file channel. The mapping outlives it, see the class comment.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final int compressedSize;
+        private final int size;
+        private final int localHeaderOffset;
+
+        private Entry(String name, int method, long crc, int compressedSize, int size, int localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public int getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package net.earthcomputer.musicalcode;
+
+import org.objectweb.asm.commons.Remapper;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A {@link Remapper} which translates names straight from a {@link MappingTable}, without reading any classes. One
+ * table can back remappers in any direction.
+ *
+ * <p>Intermediary member names are unique across the whole game, so when mapping from intermediary a member is found
+ * by its name alone, which also covers members inherited from a superclass. Other namespaces need the owner, name and
+ * descriptor. An optional hierarchy, giving the direct supertypes of a class in the source namespace, is then searched
+ * for members which are inherited.</p>
+ */
+public class MappingRemapper extends Remapper {
+    private final MappingTable table;
+    private final int from;
+    private final int to;
+    private final boolean uniqueNames;
+    private final Remapper toFirstNamespace;
+    private final Function<String, Collection<String>> hierarchy;
+
+    public MappingRemapper(MappingTable table, String fromNamespace, String toNamespace) {
+        this(table, fromNamespace, toNamespace, null);
+    }
+
+    public MappingRemapper(MappingTable table, String fromNamespace, String toNamespace, Function<String, Collection<String>> hierarchy) {
+        this.table = table;
+        this.from = table.getNamespaceIndex(fromNamespace);
+        this.to = table.getNamespaceIndex(toNamespace);
+        this.uniqueNames = table.hasUniqueMemberNames(from);
+        this.hierarchy = hierarchy;
+        // descriptors in the table are in the first namespace
+        this.toFirstNamespace = new Remapper() {
+            @Override
+            public String map(String internalName) {
+                return table.mapClass(from, 0, internalName);
+            }
+        };
+    }
+
+    @Override
+    public String map(String internalName) {
+        return table.mapClass(from, to, internalName);
+    }
+
+    @Override
+    public String mapFieldName(String owner, String name, String descriptor) {
+        if (uniqueNames) {
+            int field = table.findFieldByName(from, name);
+            return field == -1 ? name : table.getFieldName(field, to);
+        }
+        String firstDesc = from == 0 ? descriptor : toFirstNamespace.mapDesc(descriptor);
+        int field = table.findField(from, owner, name, firstDesc);
+        if (field == -1 && hierarchy != null) {
+            for (String supertype : getAllSupertypes(owner)) {
+                field = table.findField(from, supertype, name, firstDesc);
+                if (field != -1) {
+                    break;
+                }
+            }
+        }
+        return field == -1 ? name : table.getFieldName(field, to);
+    }
+
+    @Override
+    public String mapMethodName(String owner, String name, String descriptor) {
+        if (uniqueNames) {
+            int method = table.findMethodByName(from, name);
+            return method == -1 ? name : table.getMethodName(method, to);
+        }
+        String firstDesc = from == 0 ? descriptor : toFirstNamespace.mapMethodDesc(descriptor);
+        int method = table.findMethod(from, owner, name, firstDesc);
+        if (method == -1 && hierarchy != null) {
+            for (String supertype : getAllSupertypes(owner)) {
+                method = table.findMethod(from, supertype, name, firstDesc);
+                if (method != -1) {
+                    break;
+                }
+            }
+        }
+        return method == -1 ? name : table.getMethodName(method, to);
+    }
+
+    /**
+     * Returns every supertype of a class, nearest first.
+     */
+    private Iterable<String> getAllSupertypes(String className) {
+        Set<String> visited = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>(getSupertypes(className));
+        Deque<String> result = new ArrayDeque<>();
+        while (!queue.isEmpty()) {
+            String supertype = queue.remove();
+            if (visited.add(supertype)) {
+                result.add(supertype);
+                queue.addAll(getSupertypes(supertype));
+            }
+        }
+        return result;
+    }
+
+    private Collection<String> getSupertypes(String className) {
+        Collection<String> supertypes = hierarchy.apply(className);
+        return supertypes == null ? Collections.emptyList() : supertypes;
+    }
+}
@@ -0,0 +1,425 @@
+package net.earthcomputer.musicalcode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * A compact, read-only form of {@link TinyMappings} which serves lookups in every direction. Every name and descriptor
+ * is interned into a single string pool, and classes and members are stored as arrays of indexes into it. Lookups go
+ * through open-addressing tables of indexes, built the first time each namespace is looked up from.
+ *
+ * <p>A table built from a yarn jar is cached next to it in a binary form, which loads much faster than the tiny text.</p>
+ */
+public final class MappingTable {
+    private static final int MAGIC = 0x4d434d54; // MCMT
+    private static final int FORMAT_VERSION = 1;
+    private static final String INTERMEDIARY = "intermediary";
+
+    private final String[] namespaces;
+    private final String[] strings;
+    private final int[] stringTable;
+    // [class * namespaces.length + namespace] -> string index
+    private final int[] classNames;
+    private final Members fields;
+    private final Members methods;
+    // built lazily and published through the atomic arrays, since one table is shared by the remapping and comparing
+    // threads, which must never see a table before it is filled
+    private final AtomicReferenceArray<int[]> classTables;
+
+    private MappingTable(String[] namespaces, String[] strings, int[] classNames, Members fields, Members methods) {
+        this.namespaces = namespaces;
+        this.strings = strings;
+        this.stringTable = buildTable(strings.length, i -> strings[i].hashCode());
+        this.classNames = classNames;
+        this.fields = fields;
+        this.methods = methods;
+        this.classTables = new AtomicReferenceArray<>(namespaces.length);
+    }
+
+    public static MappingTable of(TinyMappings mappings) {
+        List<String> namespaces = mappings.getNamespaces();
+        int namespaceCount = namespaces.size();
+        StringPool pool = new StringPool();
+        List<TinyMappings.ClassMapping> classes = mappings.getClasses();
+        int[] classNames = new int[classes.size() * namespaceCount];
+        MembersBuilder fields = new MembersBuilder(namespaceCount);
+        MembersBuilder methods = new MembersBuilder(namespaceCount);
+        for (int i = 0; i < classes.size(); i++) {
+            TinyMappings.ClassMapping clazz = classes.get(i);
+            for (int ns = 0; ns < namespaceCount; ns++) {
+                classNames[i * namespaceCount + ns] = pool.intern(clazz.getName(ns));
+            }
+            for (TinyMappings.MemberMapping field : clazz.getFields()) {
+                fields.add(i, field, pool);
+            }
+            for (TinyMappings.MemberMapping method : clazz.getMethods()) {
+                methods.add(i, method, pool);
+            }
+        }
+        return new MappingTable(namespaces.toArray(new String[0]), pool.toArray(), classNames, fields.build(namespaceCount), methods.build(namespaceCount));
+    }
+
+    /**
+     * Loads the mappings in a yarn jar, from the binary cache next to it if it is up to date.
+     */
+    public static MappingTable load(File yarnJar, boolean refresh, Consumer<String> err) {
+        String jarName = yarnJar.getName();
+        if (jarName.endsWith(".jar")) {
+            jarName = jarName.substring(0, jarName.length() - 4);
+        }
+        File cacheFile = new File(yarnJar.getParentFile(), jarName + ".mappings");
+
+        if (!refresh && cacheFile.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+                MappingTable table = read(in, yarnJar);
+                if (table != null) {
+                    return table;
+                }
+            } catch (IOException e) {
+                err.accept("Failed to read mapping cache " + cacheFile + ", rebuilding it");
+            }
+        }
+
+        MappingTable table = of(TinyMappings.readFromYarnJar(yarnJar));
+        // written to a temporary file first, in case something else loads the cache at the same time. Its name is
+        // unique, so two runs building the same cache at once don't write into the same file
+        File tempFile = null;
+        try {
+            tempFile = Files.createTempFile(cacheFile.getAbsoluteFile().getParentFile().toPath(), "tmp-", "-" + cacheFile.getName()).toFile();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                table.write(out, yarnJar);
+            }
+            Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            if (tempFile != null) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+            throw new UncheckedIOException("Failed to write mapping cache " + cacheFile, e);
+        }
+        return table;
+    }
+
+    private static MappingTable read(DataInputStream in, File source) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        if (in.readLong() != source.length() || in.readLong() != source.lastModified()) {
+            return null;
+        }
+        String[] namespaces = new String[in.readInt()];
+        for (int i = 0; i < namespaces.length; i++) {
+            namespaces[i] = in.readUTF();
+        }
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+        int[] classNames = readInts(in);
+        Members fields = new Members(readInts(in), readInts(in), readInts(in), namespaces.length);
+        Members methods = new Members(readInts(in), readInts(in), readInts(in), namespaces.length);
+        return new MappingTable(namespaces, strings, classNames, fields, methods);
+    }
+
+    private void write(DataOutputStream out, File source) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(source.length());
+        out.writeLong(source.lastModified());
+        out.writeInt(namespaces.length);
+        for (String namespace : namespaces) {
+            out.writeUTF(namespace);
+        }
+        out.writeInt(strings.length);
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+        writeInts(out, classNames);
+        for (Members members : new Members[] {fields, methods}) {
+            writeInts(out, members.owners);
+            writeInts(out, members.descs);
+            writeInts(out, members.names);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] ints = new int[in.readInt()];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = in.readInt();
+        }
+        return ints;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+        out.writeInt(ints.length);
+        for (int i : ints) {
+            out.writeInt(i);
+        }
+    }
+
+    public int getNamespaceIndex(String namespace) {
+        for (int i = 0; i < namespaces.length; i++) {
+            if (namespaces[i].equals(namespace)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Mappings do not have namespace " + namespace + ", only " + Arrays.toString(namespaces));
+    }
+
+    public String getNamespace(int namespace) {
+        return namespaces[namespace];
+    }
+
+    public Map<String, String> getClassNames(String fromNamespace, String toNamespace) {
+        int from = getNamespaceIndex(fromNamespace);
+        int to = getNamespaceIndex(toNamespace);
+        int classCount = classNames.length / namespaces.length;
+        Map<String, String> result = new HashMap<>(classCount * 4 / 3 + 1);
+        for (int i = 0; i < classCount; i++) {
+            result.put(strings[classNames[i * namespaces.length + from]], strings[classNames[i * namespaces.length + to]]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the class with the given name in the given namespace, or -1 if it isn't mapped.
+     */
+    public int findClass(int namespace, String name) {
+        int nameIndex = findString(name);
+        if (nameIndex == -1) {
+            return -1;
+        }
+        int[] table = getClassTable(namespace);
+        return lookup(table, nameIndex, c -> classNames[c * namespaces.length + namespace] == nameIndex);
+    }
+
+    public String getClassName(int clazz, int namespace) {
+        return strings[classNames[clazz * namespaces.length + namespace]];
+    }
+
+    public String mapClass(int fromNamespace, int toNamespace, String name) {
+        int clazz = findClass(fromNamespace, name);
+        return clazz == -1 ? name : getClassName(clazz, toNamespace);
+    }
+
+    /**
+     * Returns the field with the given owner and name in the given namespace, and the given descriptor in the first
+     * namespace, or -1 if it isn't mapped.
+     */
+    public int findField(int namespace, String owner, String name, String firstNamespaceDesc) {
+        return findMember(fields, namespace, owner, name, firstNamespaceDesc);
+    }
+
+    public int findMethod(int namespace, String owner, String name, String firstNamespaceDesc) {
+        return findMember(methods, namespace, owner, name, firstNamespaceDesc);
+    }
+
+    /**
+     * Returns the field with the given name, looked up by its name alone. This only makes sense in the intermediary
+     * namespace, where member names are unique across the game.
+     */
+    public int findFieldByName(int namespace, String name) {
+        return findMemberByName(fields, namespace, name);
+    }
+
+    public int findMethodByName(int namespace, String name) {
+        return findMemberByName(methods, namespace, name);
+    }
+
+    public String getFieldName(int field, int namespace) {
+        return strings[fields.names[field * namespaces.length + namespace]];
+    }
+
+    public String getMethodName(int method, int namespace) {
+        return strings[methods.names[method * namespaces.length + namespace]];
+    }
+
+    public boolean hasUniqueMemberNames(int namespace) {
+        return namespaces[namespace].equals(INTERMEDIARY);
+    }
+
+    private int findMember(Members members, int namespace, String owner, String name, String firstNamespaceDesc) {
+        int clazz = findClass(namespace, owner);
+        int nameIndex = findString(name);
+        int descIndex = findString(firstNamespaceDesc);
+        if (clazz == -1 || nameIndex == -1 || descIndex == -1) {
+            return -1;
+        }
+        int[] table = members.getTable(namespace, namespaces.length);
+        return lookup(table, Members.hash(clazz, nameIndex, descIndex), m -> members.owners[m] == clazz
+                && members.names[m * namespaces.length + namespace] == nameIndex
+                && members.descs[m] == descIndex);
+    }
+
+    private int findMemberByName(Members members, int namespace, String name) {
+        int nameIndex = findString(name);
+        if (nameIndex == -1) {
+            return -1;
+        }
+        int[] table = members.getNameTable(namespace, namespaces.length);
+        return lookup(table, nameIndex, m -> members.names[m * namespaces.length + namespace] == nameIndex);
+    }
+
+    private int findString(String string) {
+        return lookup(stringTable, string.hashCode(), i -> strings[i].equals(string));
+    }
+
+    private int[] getClassTable(int namespace) {
+        int[] table = classTables.get(namespace);
+        if (table == null) {
+            // racing threads build the same table, so it doesn't matter which one wins
+            table = buildTable(classNames.length / namespaces.length, c -> classNames[c * namespaces.length + namespace]);
+            classTables.set(namespace, table);
+        }
+        return table;
+    }
+
+    private interface IntHash {
+        int hash(int index);
+    }
+
+    /**
+     * Builds an open-addressing table of the indexes {@code 0} to {@code count - 1}, with linear probing. Empty slots
+     * are -1.
+     */
+    private static int[] buildTable(int count, IntHash hash) {
+        int size = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        int mask = size - 1;
+        for (int i = 0; i < count; i++) {
+            int slot = mix(hash.hash(i)) & mask;
+            while (table[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i;
+        }
+        return table;
+    }
+
+    private static int lookup(int[] table, int hash, IntPredicate matches) {
+        int mask = table.length - 1;
+        int slot = mix(hash) & mask;
+        int index;
+        while ((index = table[slot]) != -1) {
+            if (matches.test(index)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int mix(int hash) {
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Members {
+        private final int[] owners;
+        // in the first namespace
+        private final int[] descs;
+        // [member * namespaceCount + namespace]
+        private final int[] names;
+        private final AtomicReferenceArray<int[]> tables;
+        private final AtomicReferenceArray<int[]> nameTables;
+
+        private Members(int[] owners, int[] descs, int[] names, int namespaceCount) {
+            this.owners = owners;
+            this.descs = descs;
+            this.names = names;
+            this.tables = new AtomicReferenceArray<>(namespaceCount);
+            this.nameTables = new AtomicReferenceArray<>(namespaceCount);
+        }
+
+        private static int hash(int owner, int name, int desc) {
+            return (owner * 31 + name) * 31 + desc;
+        }
+
+        private int[] getTable(int namespace, int namespaceCount) {
+            int[] table = tables.get(namespace);
+            if (table == null) {
+                table = buildTable(owners.length, m -> hash(owners[m], names[m * namespaceCount + namespace], descs[m]));
+                tables.set(namespace, table);
+            }
+            return table;
+        }
+
+        private int[] getNameTable(int namespace, int namespaceCount) {
+            int[] table = nameTables.get(namespace);
+            if (table == null) {
+                table = buildTable(owners.length, m -> names[m * namespaceCount + namespace]);
+                nameTables.set(namespace, table);
+            }
+            return table;
+        }
+    }
+
+    private static class MembersBuilder {
+        private final List<int[]> members = new ArrayList<>();
+        private final int namespaceCount;
+
+        private MembersBuilder(int namespaceCount) {
+            this.namespaceCount = namespaceCount;
+        }
+
+        private void add(int owner, TinyMappings.MemberMapping member, StringPool pool) {
+            int[] entry = new int[2 + namespaceCount];
+            entry[0] = owner;
+            entry[1] = pool.intern(member.getDesc());
+            for (int ns = 0; ns < namespaceCount; ns++) {
+                entry[2 + ns] = pool.intern(member.getName(ns));
+            }
+            members.add(entry);
+        }
+
+        private Members build(int namespaceCount) {
+            int[] owners = new int[members.size()];
+            int[] descs = new int[members.size()];
+            int[] names = new int[members.size() * namespaceCount];
+            for (int i = 0; i < members.size(); i++) {
+                int[] entry = members.get(i);
+                owners[i] = entry[0];
+                descs[i] = entry[1];
+                System.arraycopy(entry, 2, names, i * namespaceCount, namespaceCount);
+            }
+            return new Members(owners, descs, names, namespaceCount);
+        }
+    }
+
+    private static class StringPool {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        private int intern(String string) {
+            Integer index = indexes.get(string);
+            if (index == null) {
+                index = strings.size();
+                indexes.put(string, index);
+                strings.add(string);
+            }
+            return index;
+        }
+
+        private String[] toArray() {
+            return strings.toArray(new String[0]);
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package net.earthcomputer.musicalcode;
 
 import org.objectweb.asm.commons.Remapper;
-import org.objectweb.asm.tree.FieldNode;
-import org.objectweb.asm.tree.MethodNode;
 
 import java.io.File;
 import java.io.IOException;
@@ -11,9 +9,14 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
@@ -23,19 +26,52 @@ public abstract class MemberPattern {
     private static final Pattern INTERNAL_NAME_PATTERN = Pattern.compile(IDENTIFIER_PATTERN.pattern() + "(?:/" + IDENTIFIER_PATTERN.pattern() + ")*");
     private static final Pattern TYPE_DESC_PATTERN = Pattern.compile("\\[*(?:[BCDFIJLZ]|L" + INTERNAL_NAME_PATTERN.pattern() + ";)");
     private static final Pattern METHOD_DESC_PATTERN = Pattern.compile("\\((?:" + TYPE_DESC_PATTERN.pattern() + ")*\\)(?:V|(?:" + TYPE_DESC_PATTERN.pattern() + "))");
-
-    public abstract Collection<String> getClasses();
-    public abstract boolean matchesField(String className, FieldNode field);
-    public abstract boolean matchesMethod(String className, MethodNode method);
+    private static final Pattern GLOB_SEGMENT_PATTERN = Pattern.compile("\\*\\*|[A-Za-z0-9_$*?]+");
+    private static final Pattern CLASS_GLOB_PATTERN = Pattern.compile(GLOB_SEGMENT_PATTERN.pattern() + "(?:/(?:" + GLOB_SEGMENT_PATTERN.pattern() + "))*");
+    private static final Pattern MEMBER_GLOB_PATTERN = Pattern.compile("[A-Za-z0-9_$*?<>]+");
+    private static final Pattern FIELD_DESC_GLOB_PATTERN = Pattern.compile("[\\[A-Za-z0-9_$/;*?]+");
+    private static final Pattern METHOD_DESC_GLOB_PATTERN = Pattern.compile("\\*|\\([\\[A-Za-z0-9_$/;*?]*\\)[\\[A-Za-z0-9_$/;*?]+");
+
+    /**
+     * Returns the classes to compare, in config order. Wildcard patterns are expanded against the given classes, which
+     * are the classes present in either jar.
+     */
+    public abstract Collection<String> getClasses(Collection<String> jarClasses);
+    public abstract boolean matchesField(String className, String fieldName, String fieldDesc);
+    public abstract boolean matchesMethod(String className, String methodName, String methodDesc);
     public abstract void assertUsed(Consumer<String> errorLog);
 
-    public static MemberPattern parse(File file, Remapper yarn2intermediary) {
+    /**
+     * Returns whether the pattern keeps track of which of its members were matched, for {@link #assertUsed} to report
+     * the rest. Only then do the members of unchanged classes need to be matched.
+     */
+    public boolean tracksUsage() {
+        return true;
+    }
+
+    public static MemberPattern all() {
+        return new AllMembersPattern();
+    }
+
+    /**
+     * Returns a pattern matching whatever any of the given patterns match. Every pattern is asked about every member,
+     * so each is marked as used just as if it had been matched on its own.
+     */
+    public static MemberPattern union(List<MemberPattern> memberPatterns) {
+        return memberPatterns.size() == 1 ? memberPatterns.get(0) : new UnionMemberPattern(memberPatterns);
+    }
+
+    public static MemberPattern parse(File file, Remapper yarn2intermediary, Remapper intermediary2Yarn) {
         List<String> lines;
         try {
             lines = Files.readAllLines(file.toPath());
         } catch (IOException e) {
             throw new UncheckedIOException("Failed to read config", e);
         }
+        return parse(lines, yarn2intermediary, intermediary2Yarn);
+    }
+
+    static MemberPattern parse(List<String> lines, Remapper yarn2intermediary, Remapper intermediary2Yarn) {
         List<MemberPattern> memberPatterns = new ArrayList<>();
         for (String line : lines) {
             int hashIndex = line.indexOf('#');
@@ -44,28 +80,30 @@ public abstract class MemberPattern {
             }
             line = line.replace(" ", "");
             if (!line.isEmpty()) {
-                memberPatterns.add(parse(line, yarn2intermediary));
+                memberPatterns.add(parse(line, yarn2intermediary, intermediary2Yarn));
             }
         }
 
-        return new CombinedMemberPattern(memberPatterns);
+        return new CombinedMemberPattern(memberPatterns, intermediary2Yarn);
     }
 
-    public static MemberPattern parse(String pattern, Remapper yarn2Intermediary) {
+    public static MemberPattern parse(String pattern, Remapper yarn2Intermediary, Remapper intermediary2Yarn) {
         int dotIndex = pattern.indexOf('.');
-        if (dotIndex == -1) {
-            if (!INTERNAL_NAME_PATTERN.matcher(pattern).matches()) {
-                throw new IllegalArgumentException(pattern + " does not match the pattern for class names");
+        String className = dotIndex == -1 ? pattern : pattern.substring(0, dotIndex);
+        boolean classWildcard = Glob.isGlob(className);
+        if (classWildcard) {
+            if (!CLASS_GLOB_PATTERN.matcher(className).matches()) {
+                throw new IllegalArgumentException(className + " does not match the pattern for class names");
             }
-            return new ClassPattern(yarn2Intermediary.map(pattern));
-        }
-
-        String className = pattern.substring(0, dotIndex);
-        String member = pattern.substring(dotIndex + 1);
-        if (!INTERNAL_NAME_PATTERN.matcher(className).matches()) {
+        } else if (!INTERNAL_NAME_PATTERN.matcher(className).matches()) {
             throw new IllegalArgumentException(className + " does not match the pattern for class names");
         }
+
+        String member = dotIndex == -1 ? "*" : pattern.substring(dotIndex + 1);
         if (member.equals("*")) {
+            if (classWildcard) {
+                return new WildcardPattern(pattern, null, className, WildcardPattern.ALL_MEMBERS, null, null, intermediary2Yarn);
+            }
             return new ClassPattern(yarn2Intermediary.map(className));
         }
 
@@ -77,6 +115,15 @@ public abstract class MemberPattern {
             }
             String fieldName = member.substring(0, colonIndex);
             String fieldDesc = member.substring(colonIndex + 1);
+            if (classWildcard || Glob.isGlob(fieldName) || Glob.isGlob(fieldDesc)) {
+                if (!MEMBER_GLOB_PATTERN.matcher(fieldName).matches()) {
+                    throw new IllegalArgumentException(fieldName + " does not match the pattern for field names");
+                }
+                if (!FIELD_DESC_GLOB_PATTERN.matcher(fieldDesc).matches()) {
+                    throw new IllegalArgumentException(fieldDesc + " does not match the pattern for field descriptors");
+                }
+                return newMemberWildcard(pattern, className, classWildcard, WildcardPattern.FIELDS, fieldName, fieldDesc, yarn2Intermediary, intermediary2Yarn);
+            }
             if (!IDENTIFIER_PATTERN.matcher(fieldName).matches()) {
                 throw new IllegalArgumentException(fieldName + " does not match the pattern for field names");
             }
@@ -88,6 +135,15 @@ public abstract class MemberPattern {
 
         String methodName = member.substring(0, parenthesisIndex);
         String methodDesc = member.substring(parenthesisIndex);
+        if (classWildcard || Glob.isGlob(methodName) || Glob.isGlob(methodDesc)) {
+            if (!MEMBER_GLOB_PATTERN.matcher(methodName).matches()) {
+                throw new IllegalArgumentException(methodName + " does not match the pattern for method names");
+            }
+            if (!METHOD_DESC_GLOB_PATTERN.matcher(methodDesc).matches()) {
+                throw new IllegalArgumentException(methodDesc + " does not match the pattern for method descriptors");
+            }
+            return newMemberWildcard(pattern, className, classWildcard, WildcardPattern.METHODS, methodName, methodDesc, yarn2Intermediary, intermediary2Yarn);
+        }
         if (!METHOD_NAME_PATTERN.matcher(methodName).matches()) {
             throw new IllegalArgumentException(methodName + " does not match the pattern for method names");
         }
@@ -101,30 +157,184 @@ public abstract class MemberPattern {
         );
     }
 
+    private static MemberPattern newMemberWildcard(String pattern, String className, boolean classWildcard, int kind, String memberName, String memberDesc, Remapper yarn2Intermediary, Remapper intermediary2Yarn) {
+        // wildcard members are matched against their yarn names, but exact classes can still be looked up directly
+        if (classWildcard) {
+            return new WildcardPattern(pattern, null, className, kind, new Glob(memberName), new Glob(memberDesc), intermediary2Yarn);
+        } else {
+            return new WildcardPattern(pattern, yarn2Intermediary.map(className), className, kind, new Glob(memberName), new Glob(memberDesc), intermediary2Yarn);
+        }
+    }
+
     private static class CombinedMemberPattern extends MemberPattern {
         private final List<MemberPattern> children;
+        private final Remapper intermediary2Yarn;
+        // children indexed by class, and then by field or method name, so matching doesn't scale with the config size
+        private final Map<String, ClassIndex> index = new HashMap<>();
+        // children whose class name is a wildcard, which are looked up by the yarn name of the class
+        private final PackageTrie wildcardClasses = new PackageTrie();
+        private final Map<String, List<WildcardPattern>> wildcardsByClass = new ConcurrentHashMap<>();
+
+        private CombinedMemberPattern(List<MemberPattern> children, Remapper intermediary2Yarn) {
+            this.children = children;
+            this.intermediary2Yarn = intermediary2Yarn;
+            for (MemberPattern child : children) {
+                if (child instanceof ClassPattern) {
+                    ClassPattern classPattern = (ClassPattern) child;
+                    index.computeIfAbsent(classPattern.className, k -> new ClassIndex()).classPatterns.add(classPattern);
+                } else if (child instanceof FieldPattern) {
+                    FieldPattern fieldPattern = (FieldPattern) child;
+                    index.computeIfAbsent(fieldPattern.className, k -> new ClassIndex()).fieldPatterns
+                            .computeIfAbsent(fieldPattern.fieldName, k -> new ArrayList<>(1)).add(fieldPattern);
+                } else if (child instanceof MethodPattern) {
+                    MethodPattern methodPattern = (MethodPattern) child;
+                    index.computeIfAbsent(methodPattern.className, k -> new ClassIndex()).methodPatterns
+                            .computeIfAbsent(methodPattern.methodName, k -> new ArrayList<>(1)).add(methodPattern);
+                } else if (child instanceof WildcardPattern) {
+                    WildcardPattern wildcardPattern = (WildcardPattern) child;
+                    if (wildcardPattern.className != null) {
+                        index.computeIfAbsent(wildcardPattern.className, k -> new ClassIndex()).wildcardPatterns.add(wildcardPattern);
+                    } else {
+                        wildcardClasses.add(wildcardPattern.classGlob, 0, wildcardPattern);
+                    }
+                } else {
+                    throw new IllegalArgumentException("Cannot index " + child.getClass().getName());
+                }
+            }
+        }
 
-        private CombinedMemberPattern(List<MemberPattern> children) {
+        @Override
+        public Collection<String> getClasses(Collection<String> jarClasses) {
+            Map<WildcardPattern, List<String>> wildcardMatches = new IdentityHashMap<>();
+            if (!wildcardClasses.isEmpty()) {
+                for (String className : jarClasses) {
+                    for (WildcardPattern pattern : getWildcards(className)) {
+                        wildcardMatches.computeIfAbsent(pattern, k -> new ArrayList<>()).add(className);
+                    }
+                }
+            }
+
+            Set<String> classes = new LinkedHashSet<>();
+            for (MemberPattern child : children) {
+                if (child instanceof WildcardPattern && ((WildcardPattern) child).className == null) {
+                    classes.addAll(wildcardMatches.getOrDefault(child, Collections.emptyList()));
+                } else {
+                    classes.addAll(child.getClasses(jarClasses));
+                }
+            }
+            return classes;
+        }
+
+        private List<WildcardPattern> getWildcards(String className) {
+            if (wildcardClasses.isEmpty()) {
+                return Collections.emptyList();
+            }
+            return wildcardsByClass.computeIfAbsent(className, k -> {
+                List<WildcardPattern> matches = new ArrayList<>(0);
+                wildcardClasses.collect(intermediary2Yarn.map(className).split("/"), 0, matches);
+                return matches;
+            });
+        }
+
+        // every matching child is asked, rather than stopping at the first match, so that they are all marked as used
+
+        @Override
+        public boolean matchesField(String className, String fieldName, String fieldDesc) {
+            boolean matches = false;
+            for (WildcardPattern child : getWildcards(className)) {
+                matches |= child.matchesFieldMember(className, fieldName, fieldDesc);
+            }
+            ClassIndex classIndex = index.get(className);
+            if (classIndex == null) {
+                return matches;
+            }
+            for (ClassPattern child : classIndex.classPatterns) {
+                matches |= child.matchesField(className, fieldName, fieldDesc);
+            }
+            List<FieldPattern> fieldPatterns = classIndex.fieldPatterns.get(fieldName);
+            if (fieldPatterns != null) {
+                for (FieldPattern child : fieldPatterns) {
+                    matches |= child.matchesField(className, fieldName, fieldDesc);
+                }
+            }
+            for (WildcardPattern child : classIndex.wildcardPatterns) {
+                matches |= child.matchesFieldMember(className, fieldName, fieldDesc);
+            }
+            return matches;
+        }
+
+        @Override
+        public boolean matchesMethod(String className, String methodName, String methodDesc) {
+            boolean matches = false;
+            for (WildcardPattern child : getWildcards(className)) {
+                matches |= child.matchesMethodMember(className, methodName, methodDesc);
+            }
+            ClassIndex classIndex = index.get(className);
+            if (classIndex == null) {
+                return matches;
+            }
+            for (ClassPattern child : classIndex.classPatterns) {
+                matches |= child.matchesMethod(className, methodName, methodDesc);
+            }
+            List<MethodPattern> methodPatterns = classIndex.methodPatterns.get(methodName);
+            if (methodPatterns != null) {
+                for (MethodPattern child : methodPatterns) {
+                    matches |= child.matchesMethod(className, methodName, methodDesc);
+                }
+            }
+            for (WildcardPattern child : classIndex.wildcardPatterns) {
+                matches |= child.matchesMethodMember(className, methodName, methodDesc);
+            }
+            return matches;
+        }
+
+        @Override
+        public void assertUsed(Consumer<String> errorLog) {
+            for (MemberPattern child : children) {
+                child.assertUsed(errorLog);
+            }
+        }
+
+        private static class ClassIndex {
+            private final List<ClassPattern> classPatterns = new ArrayList<>(1);
+            private final Map<String, List<FieldPattern>> fieldPatterns = new HashMap<>();
+            private final Map<String, List<MethodPattern>> methodPatterns = new HashMap<>();
+            private final List<WildcardPattern> wildcardPatterns = new ArrayList<>(0);
+        }
+    }
+
+    private static class UnionMemberPattern extends MemberPattern {
+        private final List<MemberPattern> children;
+
+        private UnionMemberPattern(List<MemberPattern> children) {
             this.children = children;
         }
 
         @Override
-        public Collection<String> getClasses() {
+        public Collection<String> getClasses(Collection<String> jarClasses) {
             Set<String> classes = new LinkedHashSet<>();
             for (MemberPattern child : children) {
-                classes.addAll(child.getClasses());
+                classes.addAll(child.getClasses(jarClasses));
             }
             return classes;
         }
 
         @Override
-        public boolean matchesField(String className, FieldNode field) {
-            return children.stream().anyMatch(child -> child.matchesField(className, field));
+        public boolean matchesField(String className, String fieldName, String fieldDesc) {
+            boolean matches = false;
+            for (MemberPattern child : children) {
+                matches |= child.matchesField(className, fieldName, fieldDesc);
+            }
+            return matches;
         }
 
         @Override
-        public boolean matchesMethod(String className, MethodNode method) {
-            return children.stream().anyMatch(child -> child.matchesMethod(className, method));
+        public boolean matchesMethod(String className, String methodName, String methodDesc) {
+            boolean matches = false;
+            for (MemberPattern child : children) {
+                matches |= child.matchesMethod(className, methodName, methodDesc);
+            }
+            return matches;
         }
 
         @Override
@@ -135,6 +345,32 @@ public abstract class MemberPattern {
         }
     }
 
+    private static class AllMembersPattern extends MemberPattern {
+        @Override
+        public Collection<String> getClasses(Collection<String> jarClasses) {
+            return jarClasses;
+        }
+
+        @Override
+        public boolean matchesField(String className, String fieldName, String fieldDesc) {
+            return true;
+        }
+
+        @Override
+        public boolean matchesMethod(String className, String methodName, String methodDesc) {
+            return true;
+        }
+
+        @Override
+        public void assertUsed(Consumer<String> errorLog) {
+        }
+
+        @Override
+        public boolean tracksUsage() {
+            return false;
+        }
+    }
+
     private static class ClassPattern extends MemberPattern {
         private final String className;
         private boolean used;
@@ -144,12 +380,12 @@ public abstract class MemberPattern {
         }
 
         @Override
-        public Collection<String> getClasses() {
+        public Collection<String> getClasses(Collection<String> jarClasses) {
             return Collections.singletonList(className);
         }
 
         @Override
-        public boolean matchesField(String className, FieldNode field) {
+        public boolean matchesField(String className, String fieldName, String fieldDesc) {
             if (this.className.equals(className)) {
                 used = true;
                 return true;
@@ -159,7 +395,7 @@ public abstract class MemberPattern {
         }
 
         @Override
-        public boolean matchesMethod(String className, MethodNode method) {
+        public boolean matchesMethod(String className, String methodName, String methodDesc) {
             if (this.className.equals(className)) {
                 used = true;
                 return true;
@@ -187,13 +423,13 @@ public abstract class MemberPattern {
         }
 
         @Override
-        public Collection<String> getClasses() {
+        public Collection<String> getClasses(Collection<String> jarClasses) {
             return Collections.singletonList(className);
         }
 
         @Override
-        public boolean matchesField(String className, FieldNode field) {
-            if (this.className.equals(className) && this.fieldName.equals(field.name)) {
+        public boolean matchesField(String className, String fieldName, String fieldDesc) {
+            if (this.className.equals(className) && this.fieldName.equals(fieldName)) {
                 used = true;
                 return true;
             } else {
@@ -202,7 +438,7 @@ public abstract class MemberPattern {
         }
 
         @Override
-        public boolean matchesMethod(String className, MethodNode method) {
+        public boolean matchesMethod(String className, String methodName, String methodDesc) {
             return false;
         }
 
@@ -227,18 +463,18 @@ public abstract class MemberPattern {
         }
 
         @Override
-        public Collection<String> getClasses() {
+        public Collection<String> getClasses(Collection<String> jarClasses) {
             return Collections.singletonList(className);
         }
 
         @Override
-        public boolean matchesField(String className, FieldNode field) {
+        public boolean matchesField(String className, String fieldName, String fieldDesc) {
             return false;
         }
 
         @Override
-        public boolean matchesMethod(String className, MethodNode method) {
-            if (this.className.equals(className) && this.methodName.equals(method.name) && this.methodDesc.equals(method.desc)) {
+        public boolean matchesMethod(String className, String methodName, String methodDesc) {
+            if (this.className.equals(className) && this.methodName.equals(methodName) && this.methodDesc.equals(methodDesc)) {
                 used = true;
                 return true;
             } else {
@@ -253,4 +489,207 @@ public abstract class MemberPattern {
             }
         }
     }
+
+    private static class WildcardPattern extends MemberPattern {
+        private static final int ALL_MEMBERS = 0, FIELDS = 1, METHODS = 2;
+
+        private final String pattern;
+        // the intermediary class name if the class isn't a wildcard, otherwise null
+        private final String className;
+        private final String[] classGlob;
+        private final PackageTrie classTrie;
+        private final int kind;
+        private final Glob memberName;
+        private final Glob memberDesc;
+        private final Remapper intermediary2Yarn;
+        private boolean used;
+
+        private WildcardPattern(String pattern, String className, String yarnClassName, int kind, Glob memberName, Glob memberDesc, Remapper intermediary2Yarn) {
+            this.pattern = pattern;
+            this.className = className;
+            this.classGlob = yarnClassName.split("/");
+            this.classTrie = new PackageTrie();
+            classTrie.add(classGlob, 0, this);
+            this.kind = kind;
+            this.memberName = memberName;
+            this.memberDesc = memberDesc;
+            this.intermediary2Yarn = intermediary2Yarn;
+        }
+
+        private boolean matchesClass(String className) {
+            if (this.className != null) {
+                return this.className.equals(className);
+            }
+            List<WildcardPattern> matches = new ArrayList<>(1);
+            classTrie.collect(intermediary2Yarn.map(className).split("/"), 0, matches);
+            return !matches.isEmpty();
+        }
+
+        @Override
+        public Collection<String> getClasses(Collection<String> jarClasses) {
+            if (className != null) {
+                return Collections.singletonList(className);
+            }
+            List<String> classes = new ArrayList<>();
+            for (String jarClass : jarClasses) {
+                if (matchesClass(jarClass)) {
+                    classes.add(jarClass);
+                }
+            }
+            return classes;
+        }
+
+        @Override
+        public boolean matchesField(String className, String fieldName, String fieldDesc) {
+            return matchesClass(className) && matchesFieldMember(className, fieldName, fieldDesc);
+        }
+
+        @Override
+        public boolean matchesMethod(String className, String methodName, String methodDesc) {
+            return matchesClass(className) && matchesMethodMember(className, methodName, methodDesc);
+        }
+
+        private boolean matchesFieldMember(String className, String fieldName, String fieldDesc) {
+            if (kind == METHODS) {
+                return false;
+            }
+            if (kind == FIELDS) {
+                if (!memberName.matches(intermediary2Yarn.mapFieldName(className, fieldName, fieldDesc))) {
+                    return false;
+                }
+                if (!memberDesc.matches(intermediary2Yarn.mapDesc(fieldDesc))) {
+                    return false;
+                }
+            }
+            used = true;
+            return true;
+        }
+
+        private boolean matchesMethodMember(String className, String methodName, String methodDesc) {
+            if (kind == FIELDS) {
+                return false;
+            }
+            if (kind == METHODS) {
+                if (!memberName.matches(intermediary2Yarn.mapMethodName(className, methodName, methodDesc))) {
+                    return false;
+                }
+                if (!memberDesc.matches(intermediary2Yarn.mapMethodDesc(methodDesc))) {
+                    return false;
+                }
+            }
+            used = true;
+            return true;
+        }
+
+        @Override
+        public void assertUsed(Consumer<String> errorLog) {
+            if (!used) {
+                errorLog.accept("Pattern " + pattern + " did not match anything");
+            }
+        }
+    }
+
+    /**
+     * A trie of class name globs, split into package segments. A segment of {@code **} matches any number of segments.
+     */
+    private static class PackageTrie {
+        private final Map<String, PackageTrie> literalChildren = new HashMap<>();
+        private final Map<String, PackageTrie> globChildren = new LinkedHashMap<>();
+        private final List<Glob> globs = new ArrayList<>();
+        private PackageTrie anyDepthChild;
+        private final List<WildcardPattern> patterns = new ArrayList<>(1);
+
+        boolean isEmpty() {
+            return literalChildren.isEmpty() && globChildren.isEmpty() && anyDepthChild == null && patterns.isEmpty();
+        }
+
+        void add(String[] segments, int index, WildcardPattern pattern) {
+            if (index == segments.length) {
+                patterns.add(pattern);
+                return;
+            }
+            String segment = segments[index];
+            PackageTrie child;
+            if (segment.equals("**")) {
+                if (anyDepthChild == null) {
+                    anyDepthChild = new PackageTrie();
+                }
+                child = anyDepthChild;
+            } else if (Glob.isGlob(segment)) {
+                child = globChildren.get(segment);
+                if (child == null) {
+                    child = new PackageTrie();
+                    globChildren.put(segment, child);
+                    globs.add(new Glob(segment));
+                }
+            } else {
+                child = literalChildren.computeIfAbsent(segment, k -> new PackageTrie());
+            }
+            child.add(segments, index + 1, pattern);
+        }
+
+        void collect(String[] segments, int index, List<WildcardPattern> result) {
+            if (index == segments.length) {
+                for (WildcardPattern pattern : patterns) {
+                    if (!result.contains(pattern)) {
+                        result.add(pattern);
+                    }
+                }
+            } else {
+                PackageTrie literalChild = literalChildren.get(segments[index]);
+                if (literalChild != null) {
+                    literalChild.collect(segments, index + 1, result);
+                }
+                for (Glob glob : globs) {
+                    if (glob.matches(segments[index])) {
+                        globChildren.get(glob.glob).collect(segments, index + 1, result);
+                    }
+                }
+            }
+            if (anyDepthChild != null) {
+                for (int i = index; i <= segments.length; i++) {
+                    anyDepthChild.collect(segments, i, result);
+                }
+            }
+        }
+    }
+
+    /**
+     * A glob where {@code *} matches any number of characters and {@code ?} matches a single character.
+     */
+    private static class Glob {
+        private final String glob;
+
+        private Glob(String glob) {
+            this.glob = glob;
+        }
+
+        static boolean isGlob(String str) {
+            return str.indexOf('*') != -1 || str.indexOf('?') != -1;
+        }
+
+        boolean matches(String str) {
+            int globIndex = 0, strIndex = 0;
+            int starIndex = -1, starMatchEnd = 0;
+            while (strIndex < str.length()) {
+                if (globIndex < glob.length() && (glob.charAt(globIndex) == '?' || glob.charAt(globIndex) == str.charAt(strIndex))) {
+                    globIndex++;
+                    strIndex++;
+                } else if (globIndex < glob.length() && glob.charAt(globIndex) == '*') {
+                    starIndex = globIndex++;
+                    starMatchEnd = strIndex;
+                } else if (starIndex != -1) {
+                    // backtrack, letting the last star match one more character
+                    globIndex = starIndex + 1;
+                    strIndex = ++starMatchEnd;
+                } else {
+                    return false;
+                }
+            }
+            while (globIndex < glob.length() && glob.charAt(globIndex) == '*') {
+                globIndex++;
+            }
+            return globIndex == glob.length();
+        }
+    }
 }
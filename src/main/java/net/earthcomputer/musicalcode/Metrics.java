@@ -0,0 +1,173 @@
+package net.earthcomputer.musicalcode;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Records how long each phase of a run takes and how much work it does. A phase which is entered several times, such
+ * as downloading, accumulates into a single row. Phases may run concurrently, in which case the per-phase times add up
+ * to more than the total wall time.
+ *
+ * <p>While any phase is open, the heap in use is sampled from a background thread and counted towards the peak of
+ * every phase open at that moment. The heap is shared, so the peak of a phase includes whatever runs alongside it.</p>
+ */
+public class Metrics {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+    private static final long HEAP_SAMPLE_MILLIS = 10;
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, PhaseTotals> phases = new LinkedHashMap<>();
+    private final Set<Phase> openPhases = new HashSet<>(); // guarded by itself
+    private ScheduledExecutorService heapSampler; // guarded by openPhases
+
+    public Phase start(String name) {
+        return new Phase(name);
+    }
+
+    public void printSummary(Consumer<String> output) {
+        String format = "%-20s %10s %12s %12s %8s %8s %10s";
+        output.accept(String.format(format, "Phase", "Time", "Read", "Written", "Parsed", "Skipped", "Peak heap"));
+        synchronized (phases) {
+            for (PhaseTotals phase : phases.values()) {
+                output.accept(String.format(format, phase.name, phase.wallMillis + "ms", formatBytes(phase.bytesRead), formatBytes(phase.bytesWritten),
+                        phase.classesParsed, phase.classesSkipped, formatBytes(phase.peakHeapBytes)));
+            }
+        }
+        output.accept(String.format("%-20s %10s", "Total", (System.nanoTime() - startNanos) / 1000000 + "ms"));
+    }
+
+    public void writeJson(File file) {
+        List<PhaseTotals> phaseList;
+        synchronized (phases) {
+            phaseList = new ArrayList<>(phases.values());
+        }
+        try (Writer writer = new FileWriter(file)) {
+            GSON.toJson(phaseList, writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write metrics to " + file, e);
+        }
+    }
+
+    private void sampleHeap() {
+        long used = MEMORY.getHeapMemoryUsage().getUsed();
+        synchronized (openPhases) {
+            for (Phase phase : openPhases) {
+                phase.peakHeapBytes = Math.max(phase.peakHeapBytes, used);
+            }
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + "B";
+        } else if (bytes < 1024 * 1024) {
+            return String.format("%.1fKiB", bytes / 1024.0);
+        } else {
+            return String.format("%.1fMiB", bytes / (1024.0 * 1024.0));
+        }
+    }
+
+    /**
+     * A single run of a phase, which is added to the totals for its phase when it is closed.
+     */
+    public class Phase implements AutoCloseable {
+        private final String name;
+        private final long phaseStartNanos;
+        private long bytesRead;
+        private long bytesWritten;
+        private int classesParsed;
+        private int classesSkipped;
+        private long peakHeapBytes; // guarded by openPhases
+
+        private Phase(String name) {
+            this.name = name;
+            synchronized (openPhases) {
+                openPhases.add(this);
+                // the sampler only runs while there are phases to credit, so a finished run leaves no thread behind
+                if (heapSampler == null) {
+                    heapSampler = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "MusicalCode heap sampler");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    heapSampler.scheduleAtFixedRate(Metrics.this::sampleHeap, HEAP_SAMPLE_MILLIS, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+            sampleHeap();
+            this.phaseStartNanos = System.nanoTime();
+        }
+
+        public void addBytesRead(long bytes) {
+            bytesRead += bytes;
+        }
+
+        public void addBytesWritten(long bytes) {
+            bytesWritten += bytes;
+        }
+
+        public void addClassesParsed(int classes) {
+            classesParsed += classes;
+        }
+
+        public void addClassesSkipped(int classes) {
+            classesSkipped += classes;
+        }
+
+        @Override
+        public void close() {
+            long wallMillis = (System.nanoTime() - phaseStartNanos) / 1000000;
+            sampleHeap();
+            long peak;
+            synchronized (openPhases) {
+                openPhases.remove(this);
+                peak = peakHeapBytes;
+                if (openPhases.isEmpty()) {
+                    heapSampler.shutdownNow();
+                    heapSampler = null;
+                }
+            }
+            synchronized (phases) {
+                PhaseTotals totals = phases.computeIfAbsent(name, PhaseTotals::new);
+                totals.wallMillis += wallMillis;
+                totals.bytesRead += bytesRead;
+                totals.bytesWritten += bytesWritten;
+                totals.classesParsed += classesParsed;
+                totals.classesSkipped += classesSkipped;
+                totals.peakHeapBytes = Math.max(totals.peakHeapBytes, peak);
+            }
+        }
+    }
+
+    private static class PhaseTotals {
+        private final String name;
+        private long wallMillis;
+        private long bytesRead;
+        private long bytesWritten;
+        private int classesParsed;
+        private int classesSkipped;
+        private long peakHeapBytes;
+
+        private PhaseTotals(String name) {
+            this.name = name;
+        }
+    }
+}
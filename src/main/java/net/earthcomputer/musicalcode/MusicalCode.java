@@ -4,310 +4,837 @@ import com.google.gson.Gson;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
-import net.fabricmc.stitch.commands.CommandMergeJar;
-import net.fabricmc.stitch.util.Pair;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
-import net.fabricmc.tinyremapper.TinyRemapper;
+import net.fabricmc.tinyremapper.IMappingProvider;
 import net.fabricmc.tinyremapper.TinyUtils;
 import org.objectweb.asm.commons.Remapper;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.UncheckedIOException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
-import java.util.jar.JarFile;
 
 public class MusicalCode {
 
     private static final Gson GSON = new Gson();
     private static final String VERSION_MANIFEST = "https://launchermeta.mojang.com/mc/game/version_manifest.json";
     private static final String INTERMEDIARY_URL = "https://raw.githubusercontent.com/FabricMC/intermediary/master/mappings/%s.tiny";
+    // the oldest version intermediary mappings were made for
+    private static final String FIRST_INTERMEDIARY_VERSION = "18w43b";
     private static final String YARN_URL = "https://maven.fabricmc.net/net/fabricmc/yarn/%1$s/yarn-%1$s-v2.jar";
-    private static boolean refreshCache;
-    private static boolean downloadedFileChanged;
-    private static boolean yarnChanged;
 
     public static void main(String... args) {
+        run(args, null, null, System.out::println, System.err::println);
+    }
+
+    /**
+     * Runs MusicalCode with the given arguments. A daemon calls this for each comparison sent to it, passing itself,
+     * the working directory relative files are resolved against, and where the output should go.
+     */
+    static void run(String[] args, Daemon daemon, File workingDir, Consumer<String> out, Consumer<String> err) {
         OptionParser parser = new OptionParser();
         OptionSpec<Void> helpArg = parser.accepts("help", "Displays this help message").forHelp();
-        OptionSpec<String> fromArg = parser.accepts("from", "The Minecraft version you're going from").withRequiredArg().required();
-        OptionSpec<String> toArg = parser.accepts("to", "The Minecraft version you're going to").withRequiredArg().required();
-        OptionSpec<File> configFile = parser.accepts("config", "The config file").withRequiredArg().ofType(File.class).defaultsTo(new File("config.txt"));
+        OptionSpec<String> fromArg = parser.accepts("from", "The Minecraft version you're going from").requiredUnless("daemon", "versions", "history").withRequiredArg();
+        OptionSpec<String> toArg = parser.accepts("to", "The Minecraft version you're going to").requiredUnless("daemon", "versions", "history").withRequiredArg();
+        OptionSpec<String> versionsArg = parser.accepts("versions", "A comma separated chain of versions to compare each with the next, instead of --from and --to. Also reports the first version each member changed in").withRequiredArg().withValuesSeparatedBy(',');
+        OptionSpec<File> historyArg = parser.accepts("history", "Builds a history index of the changes between every version in the manifest, from --from (or the first with intermediary mappings) to --to (or the latest). With --query, reads it instead").withRequiredArg().ofType(File.class);
+        OptionSpec<String> queryArg = parser.accepts("query", "A class or member, in the format of a config line without wildcards, to list the changes to from the history index. Only changes after --from and up to --to are listed, if given").availableIf("history").withRequiredArg();
+        OptionSpec<File> configFile = parser.accepts("config", "The config file. May be given more than once to compare for several configs at once").withRequiredArg().ofType(File.class).defaultsTo(new File("config.txt"));
+        OptionSpec<Void> allArg = parser.accepts("all", "Compares every class in the jars rather than the members in the config file");
+        OptionSpec<Void> selectiveArg = parser.accepts("selective", "Only remaps the classes the config needs, rather than the whole jar");
+        OptionSpec<Void> skipYarnJarArg = parser.accepts("skipYarnJar", "Don't produce the yarn-named jars, which the comparison doesn't need");
         OptionSpec<String> yarnArg = parser.accepts("yarn", "The yarn version to use for named mappings").withRequiredArg();
-        OptionSpec<File> outputArg = parser.accepts("output", "The output file").withRequiredArg().ofType(File.class);
+        OptionSpec<File> outputArg = parser.accepts("output", "The output file. If there are several configs, give one output for each, in the same order").withRequiredArg().ofType(File.class);
         OptionSpec<File> cacheDirArg = parser.accepts("cacheDir", "The cache directory").withRequiredArg().ofType(File.class).defaultsTo(new File("cache"));
-        OptionSpec<Boolean> refreshCacheArg = parser.accepts("refreshCache", "If present, always re-download files rather than using what's already in the cache.").withOptionalArg().ofType(Boolean.class);
+        OptionSpec<Long> cacheSizeArg = parser.accepts("cacheSize", "The most megabytes of jars to keep in the cache, removing the least recently used first").withRequiredArg().ofType(Long.class);
+        OptionSpec<Integer> threadsArg = parser.accepts("threads", "The number of threads to compare classes on").withRequiredArg().ofType(Integer.class).defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSpec<Boolean> fingerprintsArg = parser.accepts("fingerprints", "If present, compare using fingerprint indexes which are built once per remapped jar and cached next to it.").withOptionalArg().ofType(Boolean.class);
+        OptionSpec<Boolean> cacheResultsArg = parser.accepts("cacheResults", "If present, keep the results of comparing each class in the cache, so that a rerun only compares the members it hasn't compared before. Not used with --fingerprints.").withOptionalArg().ofType(Boolean.class);
+        OptionSpec<Void> detectRenamesArg = parser.accepts("detectRenames", "Also reports which removed methods were renamed or moved to another class, by matching them with added methods with similar code");
+        OptionSpec<Void> detailedArg = parser.accepts("detailed", "Also lists the instructions which were removed, inserted and modified in each changed method");
+        OptionSpec<String> mirrorArg = parser.accepts("mirror", "A base URL to download everything from instead, followed by the original host and path").withRequiredArg();
+        OptionSpec<File> metricsArg = parser.accepts("metrics", "A file to write the time and work spent in each phase to, as JSON").withRequiredArg().ofType(File.class);
+        OptionSpec<Boolean> refreshCacheArg = parser.accepts("refreshCache", "If present, always re-download files rather than using what's already in the cache. A daemon also prepares the versions again, but keeps the remapped jars it has open.").withOptionalArg().ofType(Boolean.class);
+        OptionSpec<Void> daemonArg = parser.accepts("daemon", "Keeps running as a daemon, serving comparisons sent with --useDaemon and keeping what they load in memory");
+        OptionSpec<Void> useDaemonArg = parser.accepts("useDaemon", "Sends the comparison to the daemon using the same --cacheDir, or runs it here if there isn't one");
+        OptionSpec<Integer> daemonPortArg = parser.accepts("daemonPort", "The local port the daemon listens on").withRequiredArg().ofType(Integer.class).defaultsTo(Daemon.DEFAULT_PORT);
+        OptionSpec<Integer> daemonCacheEntriesArg = parser.accepts("daemonCacheEntries", "How many prepared versions, jars, fingerprint indexes and yarn mappings the daemon keeps in memory").withRequiredArg().ofType(Integer.class).defaultsTo(4);
         OptionSet options = parser.parse(args);
         if (options.has(helpArg)) {
+            // printed through out, so that a daemon's client sees it too
+            StringWriter help = new StringWriter();
             try {
-                parser.printHelpOn(System.out);
+                parser.printHelpOn(help);
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
+            out.accept(help.toString().trim());
+            return;
+        }
+        if (options.has(daemonArg)) {
+            if (daemon != null) {
+                throw new IllegalArgumentException("Already running as a daemon");
+            }
+            Daemon.serve(options.valueOf(daemonPortArg), options.valueOf(daemonCacheEntriesArg), resolve(workingDir, options.valueOf(cacheDirArg)));
             return;
         }
-        refreshCache = options.has(refreshCacheArg) && (options.valueOf(refreshCacheArg) == null || options.valueOf(refreshCacheArg));
+        if (options.has(useDaemonArg) && daemon == null) {
+            if (Daemon.forward(options.valueOf(daemonPortArg), resolve(workingDir, options.valueOf(cacheDirArg)), args)) {
+                return;
+            }
+            out.accept("No daemon is running on port " + options.valueOf(daemonPortArg) + " with this cache directory, running here instead");
+        }
+        boolean refreshCache = options.has(refreshCacheArg) && (options.valueOf(refreshCacheArg) == null || options.valueOf(refreshCacheArg));
+        RunContext context = new RunContext(refreshCache, new Metrics(), out, err);
 
-        File cacheDir = options.valueOf(cacheDirArg);
-        String fromVersion = options.valueOf(fromArg);
-        String toVersion = options.valueOf(toArg);
-        if (fromVersion.equals(toVersion)) {
-            throw new RuntimeException("fromVersion == toVersion");
+        File cacheDir = resolve(workingDir, options.valueOf(cacheDirArg));
+        List<File> configs = new ArrayList<>();
+        for (File config : options.valuesOf(configFile)) {
+            configs.add(resolve(workingDir, config));
+        }
+        List<File> outputs = new ArrayList<>();
+        for (File output : options.valuesOf(outputArg)) {
+            outputs.add(resolve(workingDir, output));
+        }
+        if (!outputs.isEmpty() && outputs.size() != configs.size()) {
+            throw new IllegalArgumentException("There must be one --output for each --config");
+        }
+        long cacheSize = options.has(cacheSizeArg) ? options.valueOf(cacheSizeArg) * 1024 * 1024 : 0;
+        ArtifactCache artifacts = daemon == null ? new ArtifactCache(cacheDir, cacheSize) : daemon.getArtifactCache(cacheDir, cacheSize);
+        if (options.has(historyArg)) {
+            File historyFile = resolve(workingDir, options.valueOf(historyArg));
+            if (options.has(queryArg)) {
+                queryHistory(context, historyFile, options.valueOf(queryArg), options.valueOf(fromArg), options.valueOf(toArg), cacheDir, artifacts, options.valueOf(mirrorArg), options.valueOf(yarnArg), out);
+            } else {
+                buildHistory(context, historyFile, options.valueOf(fromArg), options.valueOf(toArg), daemon, cacheDir, artifacts, options.valueOf(threadsArg), options.valueOf(mirrorArg));
+                artifacts.evict(out);
+                context.metrics.printSummary(out);
+            }
+            return;
         }
-        String yarnVersion;
-        File yarnJar;
-        if (options.has(yarnArg)) {
-            yarnVersion = options.valueOf(yarnArg);
-            yarnJar = download(cacheDir, String.format(YARN_URL, yarnVersion), "yarn-" + yarnVersion + ".jar");
-            yarnChanged = downloadedFileChanged;
+        List<String> versions;
+        boolean chain = options.has(versionsArg);
+        if (chain) {
+            if (options.has(fromArg) || options.has(toArg)) {
+                throw new IllegalArgumentException("--versions can't be used with --from or --to");
+            }
+            versions = options.valuesOf(versionsArg);
+            if (versions.size() < 2) {
+                throw new IllegalArgumentException("--versions needs at least two versions");
+            }
         } else {
-            yarnVersion = null;
-            yarnJar = null;
+            versions = Arrays.asList(options.valueOf(fromArg), options.valueOf(toArg));
         }
-
-        File versionManifestFile = download(cacheDir, VERSION_MANIFEST, "version_manifest.json");
-
-        Pair<File, File> fromJar = downloadAndRemap(cacheDir, versionManifestFile, fromVersion, yarnJar, yarnVersion);
-        Pair<File, File> toJar = downloadAndRemap(cacheDir, versionManifestFile, toVersion, yarnJar, yarnVersion);
-
-        TinyRemapper[] remappersToClose;
-        Remapper intermediaryToYarnRemapper;
-        Remapper yarnToIntermediaryRemapper;
-        if (yarnVersion != null) {
-            TinyRemapper i2y = getYarnRemapper(fromJar.getLeft(), yarnJar, "intermediary", "named");
-            TinyRemapper y2i = getYarnRemapper(fromJar.getRight(), yarnJar, "named", "intermediary");
-            remappersToClose = new TinyRemapper[] {i2y, y2i};
-            intermediaryToYarnRemapper = i2y.getRemapper();
-            yarnToIntermediaryRemapper = y2i.getRemapper();
+        for (int i = 1; i < versions.size(); i++) {
+            if (versions.get(i - 1).equals(versions.get(i))) {
+                throw new RuntimeException("fromVersion == toVersion");
+            }
+        }
+        String yarnVersion = options.valueOf(yarnArg);
+        boolean compareAll = options.has(allArg);
+        if (compareAll && options.has(selectiveArg)) {
+            throw new IllegalArgumentException("--selective can't be used with --all");
+        }
+        // every change goes to the first output, so there can't be more than one
+        if (compareAll && configs.size() != 1) {
+            throw new IllegalArgumentException("--all can only be used with one config");
+        }
+        if (options.has(selectiveArg) && configs.size() != 1) {
+            throw new IllegalArgumentException("--selective can only be used with one config");
+        }
+        File selectiveConfig = options.has(selectiveArg) ? configs.get(0) : null;
+        boolean yarnJars = yarnVersion != null && !options.has(skipYarnJarArg);
+        int threads = options.valueOf(threadsArg);
+
+        PreparedVersions prepared = null;
+        String preparedKey = String.join("\0", cacheDir.getAbsolutePath(), String.join(",", versions), String.valueOf(yarnVersion), String.valueOf(yarnJars),
+                selectiveConfig == null ? "" : ArtifactCache.sha1(selectiveConfig));
+        if (daemon != null && !context.refreshCache) {
+            prepared = daemon.preparedVersions.get(preparedKey);
+        }
+        if (prepared == null) {
+            prepared = prepareVersions(context, daemon, cacheDir, artifacts, threads, options.valueOf(mirrorArg), versions, yarnVersion, yarnJars, selectiveConfig);
+            if (daemon != null) {
+                // the yarn remappers keep the from jar mapped
+                if (prepared.hierarchyJar != null) {
+                    daemon.markMapped(prepared.hierarchyJar.getFile());
+                }
+                daemon.preparedVersions.put(preparedKey, prepared);
+            }
         } else {
-            remappersToClose = new TinyRemapper[0];
-            intermediaryToYarnRemapper = yarnToIntermediaryRemapper = new Remapper() {};
+            out.accept("Using " + String.join(", ", versions) + " as prepared by an earlier run");
         }
 
-        MemberPattern memberPattern = MemberPattern.parse(options.valueOf(configFile), yarnToIntermediaryRemapper);
+        List<MemberPattern> memberPatterns = new ArrayList<>();
+        if (!compareAll) {
+            try (Metrics.Phase phase = context.metrics.start("parse config")) {
+                for (File config : configs) {
+                    memberPatterns.add(MemberPattern.parse(config, prepared.yarnToIntermediary, prepared.intermediaryToYarn));
+                    phase.addBytesRead(config.length());
+                }
+            }
+        }
 
-        Consumer<String> output;
-        PrintWriter outputWriter;
-        if (options.has(outputArg)) {
-            try {
-                outputWriter = new PrintWriter(new FileWriter(options.valueOf(outputArg)));
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
+        // with several configs, each one's output and errors are told apart by the config they came from
+        List<Consumer<String>> outputLogs = new ArrayList<>();
+        List<Consumer<String>> errorLogs = new ArrayList<>();
+        List<PrintWriter> outputWriters = new ArrayList<>();
+        for (int i = 0; i < configs.size(); i++) {
+            String prefix = configs.size() == 1 ? "" : options.valuesOf(configFile).get(i) + ": ";
+            if (outputs.isEmpty()) {
+                outputLogs.add(prefix.isEmpty() ? out : line -> out.accept(prefix + line));
+            } else {
+                PrintWriter outputWriter;
+                try {
+                    outputWriter = new PrintWriter(new FileWriter(outputs.get(i)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                outputWriters.add(outputWriter);
+                outputLogs.add(outputWriter::println);
             }
-            output = outputWriter::println;
-        } else {
-            outputWriter = null;
-            output = System.out::println;
+            errorLogs.add(prefix.isEmpty() ? err : line -> err.accept(prefix + line));
         }
 
-        System.out.println("Comparing jars...");
-        System.out.println("====================================");
-        try (JarFile fromJarFile = new JarFile(fromJar.getLeft()); JarFile toJarFile = new JarFile(toJar.getLeft())) {
-            JarComparer.compare(fromJarFile, toJarFile, memberPattern, intermediaryToYarnRemapper, output, System.err::println);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+        out.accept("Comparing jars...");
+        out.accept("====================================");
+        boolean fingerprints = options.has(fingerprintsArg) && (options.valueOf(fingerprintsArg) == null || options.valueOf(fingerprintsArg));
+        boolean cacheResults = options.has(cacheResultsArg) && (options.valueOf(cacheResultsArg) == null || options.valueOf(cacheResultsArg));
+        boolean detectRenames = options.has(detectRenamesArg);
+        boolean detailed = options.has(detailedArg);
+        // for each config, the first version each class or member changed in
+        List<Map<String, String>> firstChanges = new ArrayList<>();
+        for (int i = 0; i < configs.size(); i++) {
+            firstChanges.add(new LinkedHashMap<>());
+        }
+        Remapper intermediaryToYarn = prepared.intermediaryToYarn;
+        JarComparer.Stats stats = new JarComparer.Stats();
+        // only the versions either side of a step are kept, so a chain needs no more memory than a single comparison
+        ComparedVersion previous = openVersion(context, daemon, prepared.jars.get(0), false, fingerprints, detectRenames || detailed, threads);
+        try {
+            for (int step = 1; step < versions.size(); step++) {
+                String version = versions.get(step);
+                ComparedVersion current = openVersion(context, daemon, prepared.jars.get(step), step < versions.size() - 1, fingerprints, detectRenames || detailed, threads);
+                List<Consumer<JarComparer.Change>> changes = new ArrayList<>();
+                // the changes of each config, kept to look for renames among
+                List<List<JarComparer.Change>> stepChanges = new ArrayList<>();
+                InstructionDiff instructionDiff = detailed ? new InstructionDiff(previous.jar, current.jar) : null;
+                for (int i = 0; i < configs.size(); i++) {
+                    Consumer<String> outputLog = outputLogs.get(i);
+                    Map<String, String> configFirstChanges = firstChanges.get(i);
+                    if (chain) {
+                        outputLog.accept("Changes from " + versions.get(step - 1) + " to " + version + ":");
+                    }
+                    List<JarComparer.Change> configChanges = new ArrayList<>();
+                    stepChanges.add(configChanges);
+                    changes.add(change -> {
+                        if (detectRenames) {
+                            configChanges.add(change);
+                        }
+                        String description = change.describe(intermediaryToYarn);
+                        outputLog.accept(description);
+                        if (instructionDiff != null && change.getKind() == JarComparer.Change.Kind.METHOD && change.getAction().equals("changed")) {
+                            instructionDiff.describe(change, intermediaryToYarn, outputLog);
+                        }
+                        configFirstChanges.putIfAbsent(change.getTarget(), description + " in " + version);
+                    });
+                }
+                try {
+                    stats.add(compare(context, previous, current, memberPatterns, threads, cacheResults, changes));
+                    if (detectRenames) {
+                        detectRenames(context, previous, current, threads, stepChanges, outputLogs, intermediaryToYarn);
+                    }
+                } finally {
+                    previous.close(daemon);
+                    previous = current;
+                }
+            }
+        } finally {
+            previous.close(daemon);
         }
 
-        System.out.println("Finished comparison");
-        for (TinyRemapper remapper : remappersToClose) {
-            remapper.finish();
+        for (int i = 0; i < configs.size(); i++) {
+            if (chain) {
+                outputLogs.get(i).accept("First versions with changes:");
+                firstChanges.get(i).values().forEach(outputLogs.get(i));
+            }
+            if (!compareAll) {
+                memberPatterns.get(i).assertUsed(errorLogs.get(i));
+            }
         }
 
-        if (outputWriter != null) {
+        out.accept("Finished comparison");
+        out.accept("Skipped " + stats.getClassesSkipped() + " of " + stats.getClassesCompared() + " classes which were unchanged");
+        if (stats.getClassesCached() > 0) {
+            out.accept("Reused the cached results of " + stats.getClassesCached() + " classes");
+        }
+        if (daemon == null) {
+            close(prepared);
+        }
+
+        for (PrintWriter outputWriter : outputWriters) {
             outputWriter.flush();
             outputWriter.close();
         }
 
+        out.accept("====================================");
+        artifacts.evict(out);
+        context.metrics.printSummary(out);
+        if (options.has(metricsArg)) {
+            context.metrics.writeJson(resolve(workingDir, options.valueOf(metricsArg)));
+        }
     }
 
-    private static Pair<File, File> downloadAndRemap(File cacheDir, File versionManifestFile, String version, File yarnJar, String yarnVersion) {
-        File unmapped = downloadMcJar(cacheDir, versionManifestFile, version);
-        return remapMcJar(cacheDir, version, unmapped, downloadedFileChanged, yarnJar, yarnVersion);
+    /**
+     * Compares every version in the range with the next, using their fingerprint indexes, and writes the changes to a
+     * history index.
+     */
+    private static void buildHistory(RunContext context, File historyFile, String fromVersion, String toVersion, Daemon daemon, File cacheDir, ArtifactCache artifacts, int threads, String mirror) {
+        List<String> versions;
+        try (Downloader downloader = new Downloader(cacheDir, artifacts, context.refreshCache, threads, mirror, context.metrics, context.out)) {
+            versions = getVersionRange(downloader.download(VERSION_MANIFEST, "version_manifest.json").getFile(),
+                    fromVersion == null ? FIRST_INTERMEDIARY_VERSION : fromVersion, toVersion);
+        }
+        if (versions.size() < 2) {
+            throw new IllegalArgumentException("A history needs at least two versions");
+        }
+
+        // the history is keyed by intermediary names, which are the same in every version, so yarn isn't needed
+        PreparedVersions prepared = prepareVersions(context, daemon, cacheDir, artifacts, threads, mirror, versions, null, false, null);
+        HistoryIndex.Builder history = new HistoryIndex.Builder(versions);
+        FingerprintIndex previous = null;
+        for (int i = 0; i < versions.size(); i++) {
+            int version = i;
+            FingerprintIndex current;
+            try (Metrics.Phase ignored = context.metrics.start("fingerprints")) {
+                current = loadFingerprints(context, daemon, prepared.jars.get(i), threads);
+            }
+            if (previous != null) {
+                context.out.accept("Comparing " + versions.get(i - 1) + " to " + versions.get(i) + "...");
+                try (Metrics.Phase phase = context.metrics.start("compare")) {
+                    recordStats(phase, JarComparer.findAllChanges(previous, current, change -> history.add(version, change)));
+                }
+            }
+            // only the version before is needed by the next comparison
+            previous = current;
+        }
+        if (daemon == null) {
+            close(prepared);
+        }
+        history.write(historyFile);
+        context.out.accept("Wrote the history of " + versions.size() + " versions to " + historyFile);
+    }
+
+    /**
+     * Lists the changes to a class or member from a history index, without reading any jars.
+     *
+     * @param yarnVersion the yarn version to read the query and write the changes with, or null to use intermediary
+     */
+    private static void queryHistory(RunContext context, File historyFile, String query, String fromVersion, String toVersion, File cacheDir, ArtifactCache artifacts, String mirror,
+                                     String yarnVersion, Consumer<String> out) {
+        Remapper intermediaryToYarn = new Remapper() {};
+        MappingTable yarnMappings = null;
+        if (yarnVersion != null) {
+            try (Downloader downloader = new Downloader(cacheDir, artifacts, context.refreshCache, 1, mirror, context.metrics, context.out)) {
+                yarnMappings = loadYarnMappings(context, downloader.download(String.format(YARN_URL, yarnVersion), "yarn-" + yarnVersion + ".jar").getFile());
+            }
+            intermediaryToYarn = new MappingRemapper(yarnMappings, "intermediary", "named");
+        }
+
+        // the query is a config line: a class, optionally followed by a member name and a descriptor
+        query = query.replaceAll("\\s", "");
+        int dot = query.indexOf('.');
+        String className = dot == -1 ? query : query.substring(0, dot);
+        String memberName = dot == -1 ? null : query.substring(dot + 1);
+        String memberDesc = null;
+        if (memberName != null) {
+            int descStart = memberName.indexOf('(');
+            if (descStart == -1) {
+                descStart = memberName.indexOf(':');
+            }
+            if (descStart != -1) {
+                memberDesc = memberName.charAt(descStart) == ':' ? memberName.substring(descStart + 1) : memberName.substring(descStart);
+                memberName = memberName.substring(0, descStart);
+            }
+        }
+        if (yarnMappings != null) {
+            className = yarnMappings.mapClass(yarnMappings.getNamespaceIndex("named"), yarnMappings.getNamespaceIndex("intermediary"), className);
+        }
+
+        try (HistoryIndex history = HistoryIndex.open(historyFile)) {
+            List<String> versions = history.getVersions();
+            int after = fromVersion == null ? -1 : versions.indexOf(fromVersion);
+            int until = toVersion == null ? versions.size() - 1 : versions.indexOf(toVersion);
+            if (after == -1 && fromVersion != null || until == -1) {
+                throw new IllegalArgumentException("The history doesn't include " + (until == -1 ? toVersion : fromVersion));
+            }
+
+            Remapper remapper = intermediaryToYarn;
+            String name = memberName;
+            String desc = memberDesc;
+            int[] changeCount = {0};
+            history.findChanges(className, after, until, (version, change) -> {
+                if (name != null) {
+                    switch (change.getKind()) {
+                        case FIELD:
+                            if (!name.equals(remapper.mapFieldName(change.getClassName(), change.getName(), change.getDesc()))
+                                    || desc != null && !desc.equals(remapper.mapDesc(change.getDesc()))) {
+                                return;
+                            }
+                            break;
+                        case METHOD:
+                            if (!name.equals(remapper.mapMethodName(change.getClassName(), change.getName(), change.getDesc()))
+                                    || desc != null && !desc.equals(remapper.mapMethodDesc(change.getDesc()))) {
+                                return;
+                            }
+                            break;
+                        default:
+                            return;
+                    }
+                }
+                out.accept(change.describe(remapper) + " in " + version);
+                changeCount[0]++;
+            });
+            if (changeCount[0] == 0) {
+                out.accept("No changes to " + query + (fromVersion == null ? "" : " after " + fromVersion) + " up to " + versions.get(until));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read history index " + historyFile, e);
+        }
     }
 
-    private static File downloadMcJar(File cacheDir, File versionManifestFile, String version) {
+    private static List<String> getVersionRange(File versionManifestFile, String fromVersion, String toVersion) {
         VersionManifest versionManifest;
-        try {
-            versionManifest = GSON.fromJson(new FileReader(versionManifestFile), VersionManifest.class);
-        } catch (FileNotFoundException e) {
+        try (FileReader reader = new FileReader(versionManifestFile)) {
+            versionManifest = GSON.fromJson(reader, VersionManifest.class);
+        } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
-        String versionUrl = null;
+        // the manifest lists the latest version first
+        List<String> versions = new ArrayList<>();
         for (VersionManifest.Version v : versionManifest.versions) {
-            if (v.id.equals(version)) {
-                versionUrl = v.url;
-                break;
-            }
+            versions.add(0, v.id);
         }
-        if (versionUrl == null) {
-            throw new RuntimeException("Unknown version: " + version);
+        int from = versions.indexOf(fromVersion);
+        int to = toVersion == null ? versions.size() - 1 : versions.indexOf(toVersion);
+        if (from == -1 || to == -1) {
+            throw new RuntimeException("Unknown version: " + (from == -1 ? fromVersion : toVersion));
         }
+        return new ArrayList<>(versions.subList(from, to + 1));
+    }
 
-        File versionFile = download(cacheDir, versionUrl, version + ".json");
-        Version v;
+    private static File resolve(File workingDir, File file) {
+        return workingDir == null || file.isAbsolute() ? file : new File(workingDir, file.getPath());
+    }
+
+    /**
+     * Downloads, merges and remaps each version, and builds the yarn remappers.
+     */
+    private static PreparedVersions prepareVersions(RunContext context, Daemon daemon, File cacheDir, ArtifactCache artifacts, int threads, String mirror, List<String> versions,
+                                                    String yarnVersion, boolean yarnJars, File selectiveConfig) {
+        // the versions only share the manifest and the yarn jar, so they are prepared side by side
+        try (Downloader downloader = new Downloader(cacheDir, artifacts, context.refreshCache, threads, mirror, context.metrics, context.out);
+             TaskGraph tasks = new TaskGraph(threads)) {
+            TaskGraph.Task<CachedFile> yarnJar = tasks.add("download yarn", yarnVersion == null
+                    ? CompletableFuture.completedFuture(null)
+                    : downloader.downloadAsync(String.format(YARN_URL, yarnVersion), "yarn-" + yarnVersion + ".jar"));
+            // the yarn mappings are loaded once and shared by every version and both remapping directions
+            TaskGraph.Task<MappingTable> yarnMappings = tasks.add("load yarn mappings", () -> {
+                if (yarnJar.get() == null) {
+                    return null;
+                }
+                File file = yarnJar.get().getFile();
+                return daemon == null ? loadYarnMappings(context, file) : daemon.yarnMappings.computeIfAbsent(yarnJar.get().getHash(), k -> loadYarnMappings(context, file));
+            }, yarnJar);
+            CompletableFuture<CachedFile> versionManifest = downloader.downloadAsync(VERSION_MANIFEST, "version_manifest.json");
+            List<VersionTasks> versionTasks = new ArrayList<>();
+            for (String version : versions) {
+                versionTasks.add(addVersionTasks(context, tasks, downloader, artifacts, versionManifest, version, yarnJar, yarnMappings, yarnVersion, yarnJars, selectiveConfig));
+            }
+            VersionTasks from = versionTasks.get(0);
+
+            Remapper intermediaryToYarn;
+            Remapper yarnToIntermediary;
+            MappedJar hierarchyJar = null;
+            if (yarnVersion != null) {
+                TaskGraph.Task<YarnRemappers> yarnRemappers = tasks.add("build yarn remappers",
+                        () -> buildYarnRemappers(context, yarnMappings.get(), from.intermediary.get().getFile()),
+                        yarnMappings, from.intermediary);
+                intermediaryToYarn = yarnRemappers.get().intermediaryToYarn;
+                yarnToIntermediary = yarnRemappers.get().yarnToIntermediary;
+                hierarchyJar = yarnRemappers.get().hierarchyJar;
+            } else {
+                intermediaryToYarn = yarnToIntermediary = new Remapper() {};
+            }
+
+            List<File> jars = new ArrayList<>();
+            for (VersionTasks version : versionTasks) {
+                jars.add(version.intermediary.get().getFile());
+            }
+            // the comparison doesn't read the yarn jars, but they should still be cached and any failure reported
+            for (VersionTasks version : versionTasks) {
+                version.yarn.get();
+            }
+            return new PreparedVersions(jars, intermediaryToYarn, yarnToIntermediary, hierarchyJar);
+        }
+    }
+
+    private static MappedJar openJar(Daemon daemon, File file) {
+        if (daemon != null) {
+            return daemon.jars.computeIfAbsent(file, k -> {
+                daemon.markMapped(k);
+                return openJar(null, k);
+            });
+        }
         try {
-            v = GSON.fromJson(new FileReader(versionFile), Version.class);
-        } catch (FileNotFoundException e) {
-            throw new UncheckedIOException(e);
+            return MappedJar.open(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open " + file, e);
         }
+    }
 
-        File clientJar = download(cacheDir, v.downloads.client.url, version + "-client.jar");
-        boolean clientChanged = downloadedFileChanged;
-        File serverJar = download(cacheDir, v.downloads.server.url, version + "-server.jar");
-        boolean serverChanged = downloadedFileChanged;
-        File mergedJar = new File(cacheDir, version + "-merged.jar");
+    private static FingerprintIndex loadFingerprints(RunContext context, Daemon daemon, File jar, int threads) {
+        if (daemon != null) {
+            return daemon.fingerprintIndexes.computeIfAbsent(jar, k -> FingerprintIndex.load(k, context.refreshCache, threads, context.out, context.err));
+        }
+        return FingerprintIndex.load(jar, context.refreshCache, threads, context.out, context.err);
+    }
 
-        System.out.println("Merging " + version + " jars...");
-        boolean redoRemap = refreshCache || !mergedJar.exists() || clientChanged || serverChanged;
-        if (redoRemap) {
-            try {
-                new CommandMergeJar().run(new String[] {clientJar.getAbsolutePath(), serverJar.getAbsolutePath(), mergedJar.getAbsolutePath()});
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+    private static ComparedVersion openVersion(RunContext context, Daemon daemon, File jar, boolean comparedAgain, boolean fingerprints, boolean needsCode, int threads) {
+        if (fingerprints) {
+            try (Metrics.Phase ignored = context.metrics.start("fingerprints")) {
+                // fingerprints have no code to match renames by or to list instructions from
+                return new ComparedVersion(jar, needsCode ? openJar(daemon, jar) : null, null, loadFingerprints(context, daemon, jar, threads));
             }
         }
-        downloadedFileChanged = redoRemap;
-
-        return mergedJar;
+        // only a version which is compared again keeps the classes it parsed
+        return new ComparedVersion(jar, openJar(daemon, jar), comparedAgain ? new JarComparer.ParsedClasses() : null, null);
     }
 
-    private static Pair<File, File> remapMcJar(File cacheDir, String version, File input, boolean inputChanged, File yarnJar, String yarnVersion) {
-        File intermediaryMappings = download(cacheDir, String.format(INTERMEDIARY_URL, version), version + "-intermediary.tiny");
-        boolean intermediaryMappingsChanged = downloadedFileChanged;
-
-        System.out.println("Remapping " + version + " to intermediary...");
-        File intermediary = new File(cacheDir, version + "-intermediary.jar");
-        boolean intermediaryChanged = false;
-        if (refreshCache || !intermediary.exists() || inputChanged || intermediaryMappingsChanged) {
-            TinyRemapper remapper = TinyRemapper.newRemapper()
-                    .withMappings(TinyUtils.createTinyMappingProvider(intermediaryMappings.toPath(), "official", "intermediary"))
-                    .build();
-            try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(intermediary.toPath()).build()) {
-                remapper.readInputs(input.toPath());
-                remapper.apply(outputConsumer);
-            } catch (IOException e) {
-                throw new UncheckedIOException("Failed to remap " + version, e);
-            } finally {
-                remapper.finish();
+    private static JarComparer.Stats compare(RunContext context, ComparedVersion from, ComparedVersion to, List<MemberPattern> memberPatterns, int threads, boolean cacheResults,
+                                             List<Consumer<JarComparer.Change>> changes) {
+        try (Metrics.Phase phase = context.metrics.start("compare")) {
+            JarComparer.Stats stats;
+            // --all parses no configs
+            if (memberPatterns.isEmpty()) {
+                stats = from.index != null
+                        ? JarComparer.findAllChanges(from.index, to.index, changes.get(0))
+                        : JarComparer.findAllChanges(from.jar, to.jar, threads, changes.get(0));
+            } else if (from.index != null) {
+                stats = JarComparer.findChanges(from.index, to.index, memberPatterns, changes);
+            } else {
+                ResultCache results = cacheResults ? ResultCache.load(from.file, to.file, context.refreshCache, context.err) : null;
+                stats = JarComparer.findChanges(from.jar, from.parsedClasses, to.jar, to.parsedClasses, memberPatterns, threads, results, changes);
+                if (results != null) {
+                    results.save();
+                }
             }
-            intermediaryChanged = true;
+            recordStats(phase, stats);
+            return stats;
         }
+    }
 
-        System.out.println("Remapping " + version + " to yarn...");
-        File yarn;
-        if (yarnVersion != null) {
-            yarn = new File(cacheDir, version + "-yarn-" + yarnVersion + ".jar");
-            if (refreshCache || !yarn.exists() || intermediaryChanged || yarnChanged) {
-                TinyRemapper remapper = null;
-                try (JarFile yarnJarFile = new JarFile(yarnJar);
-                     OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(yarn.toPath()).build()) {
-                    BufferedReader tinyReader = new BufferedReader(new InputStreamReader(yarnJarFile.getInputStream(yarnJarFile.getEntry("mappings/mappings.tiny")), StandardCharsets.UTF_8));
-                    remapper = TinyRemapper.newRemapper()
-                            .withMappings(TinyUtils.createTinyMappingProvider(tinyReader, "intermediary", "named"))
-                            .build();
-                    remapper.readInputs(intermediary.toPath());
-                    remapper.apply(outputConsumer);
-                } catch (IOException e) {
-                    throw new UncheckedIOException("Failed to remap " + version, e);
-                } finally {
-                    if (remapper != null) {
-                        remapper.finish();
-                    }
+    private static void detectRenames(RunContext context, ComparedVersion from, ComparedVersion to, int threads, List<List<JarComparer.Change>> changes, List<Consumer<String>> outputLogs,
+                                      Remapper intermediaryToYarn) {
+        try (Metrics.Phase phase = context.metrics.start("detect renames")) {
+            // the added methods are found once, for every config to match against
+            RenameDetector renameDetector = RenameDetector.of(from.jar, to.jar, threads);
+            phase.addClassesParsed(renameDetector.getAddedMethodCount());
+            for (int i = 0; i < changes.size(); i++) {
+                for (RenameDetector.Rename rename : renameDetector.match(changes.get(i))) {
+                    outputLogs.get(i).accept(rename.describe(intermediaryToYarn));
                 }
             }
-        } else {
-            yarn = null;
         }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
 
-        return Pair.of(intermediary, yarn);
+    private static void recordStats(Metrics.Phase phase, JarComparer.Stats stats) {
+        phase.addBytesRead(stats.getBytesRead());
+        phase.addClassesParsed(stats.getClassesCompared() - stats.getClassesSkipped());
+        phase.addClassesSkipped(stats.getClassesSkipped() + stats.getClassesCached());
     }
 
-    private static TinyRemapper getYarnRemapper(File fromJar, File yarnJar, String fromNamespace, String toNamespace) {
-        System.out.println("Building yarn " + fromNamespace + " to " + toNamespace + " remapper...");
-        try (JarFile yarnJarFile = new JarFile(yarnJar)) {
-            BufferedReader tinyReader = new BufferedReader(new InputStreamReader(yarnJarFile.getInputStream(yarnJarFile.getEntry("mappings/mappings.tiny")), StandardCharsets.UTF_8));
-            TinyRemapper remapper = TinyRemapper.newRemapper()
-                    .withMappings(TinyUtils.createTinyMappingProvider(tinyReader, fromNamespace, toNamespace))
-                    .build();
-            remapper.readInputs(fromJar.toPath());
-            remapper.getRemapper(); // force read the mappings
-            return remapper;
+    private static VersionTasks addVersionTasks(RunContext context, TaskGraph tasks, Downloader downloader, ArtifactCache artifacts, CompletableFuture<CachedFile> versionManifest, String version, TaskGraph.Task<CachedFile> yarnJar, TaskGraph.Task<MappingTable> yarnMappings, String yarnVersion, boolean yarnJars, File selectiveConfig) {
+        TaskGraph.Task<CachedFile> intermediaryMappings = tasks.add("download " + version + " intermediary",
+                downloader.downloadAsync(String.format(INTERMEDIARY_URL, version), version + "-intermediary.tiny"));
+        CompletableFuture<Version> versionJson = versionManifest
+                .thenCompose(manifest -> downloader.downloadAsync(getVersionUrl(manifest.getFile(), version), version + ".json"))
+                .thenApply(versionFile -> {
+                    try (FileReader reader = new FileReader(versionFile.getFile())) {
+                        return GSON.fromJson(reader, Version.class);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+        TaskGraph.Task<CachedFile> clientJar = tasks.add("download " + version + " client",
+                versionJson.thenCompose(v -> downloader.downloadVerifiedAsync(v.downloads.client.url, v.downloads.client.sha1, version + "-client.jar")));
+        TaskGraph.Task<CachedFile> serverJar = tasks.add("download " + version + " server",
+                versionJson.thenCompose(v -> downloader.downloadVerifiedAsync(v.downloads.server.url, v.downloads.server.sha1, version + "-server.jar")));
+
+        // only selection needs the yarn mappings, a whole jar is remapped without waiting for them
+        TaskGraph.Task<CachedFile> intermediaryJar = selectiveConfig == null
+                ? tasks.add("remap " + version + " to intermediary",
+                        () -> remapToIntermediary(context, artifacts, version, clientJar.get(), serverJar.get(), intermediaryMappings.get(), null, null, null),
+                        clientJar, serverJar, intermediaryMappings)
+                : tasks.add("remap " + version + " to intermediary",
+                        () -> remapToIntermediary(context, artifacts, version, clientJar.get(), serverJar.get(), intermediaryMappings.get(), selectiveConfig, yarnJar.get(), yarnMappings.get()),
+                        clientJar, serverJar, intermediaryMappings, yarnJar, yarnMappings);
+        TaskGraph.Task<CachedFile> yarnNamedJar = tasks.add("remap " + version + " to yarn",
+                () -> !yarnJars ? null : remapToYarn(context, artifacts, version, intermediaryJar.get(), yarnJar.get(), yarnVersion),
+                intermediaryJar, yarnJar);
+        return new VersionTasks(intermediaryJar, yarnNamedJar);
+    }
+
+    private static String getVersionUrl(File versionManifestFile, String version) {
+        VersionManifest versionManifest;
+        try (FileReader reader = new FileReader(versionManifestFile)) {
+            versionManifest = GSON.fromJson(reader, VersionManifest.class);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        for (VersionManifest.Version v : versionManifest.versions) {
+            if (v.id.equals(version)) {
+                return v.url;
+            }
+        }
+        throw new RuntimeException("Unknown version: " + version);
     }
 
-    @SuppressWarnings("ResultOfMethodCallIgnored")
-    private static File download(File cacheDir, String urlString, String dest) {
-        URL url;
-        try {
-            url = new URL(urlString);
-        } catch (MalformedURLException e) {
-            throw new RuntimeException(e);
+    /**
+     * Merges the client and server jars in memory and remaps them to intermediary, so the intermediary jar is the
+     * only one written.
+     *
+     * @param selectiveConfig the config to select the classes to remap with, or null to remap the whole jar
+     * @param yarnJar the yarn jar, only needed when selecting classes, or null
+     */
+    private static CachedFile remapToIntermediary(RunContext context, ArtifactCache artifacts, String version, CachedFile clientJar, CachedFile serverJar, CachedFile intermediaryMappings,
+                                                  File selectiveConfig, CachedFile yarnJar, MappingTable yarnMappings) {
+        String suffix = selectiveConfig == null ? "" : "-selective";
+        // a whole jar doesn't depend on yarn, so a new yarn build doesn't remap it again
+        String key = selectiveConfig == null
+                ? ArtifactCache.key("intermediary", clientJar.getHash(), serverJar.getHash(), intermediaryMappings.getHash(), "all")
+                : ArtifactCache.key("intermediary", clientJar.getHash(), serverJar.getHash(), intermediaryMappings.getHash(),
+                        ArtifactCache.sha1(selectiveConfig), yarnJar == null ? "none" : yarnJar.getHash());
+        File intermediary = artifacts.getFile(key, version + "-intermediary" + suffix + ".jar");
+        // a jar a daemon has mapped can't be replaced, so it is kept even when refreshing
+        if ((!context.refreshCache || artifacts.isMapped(intermediary)) && intermediary.exists()) {
+            context.out.accept("Using cached " + version + " intermediary jar");
+            return new CachedFile(intermediary, false, key);
         }
-        System.out.println("Downloading " + dest + "...");
 
-        File destFile = new File(cacheDir, dest);
-        File etagFile = new File(cacheDir, dest + ".etag");
+        context.out.accept("Merging " + version + " jars...");
+        Map<String, byte[]> mergedClasses;
+        try (Metrics.Phase phase = context.metrics.start("merge")) {
+            mergedClasses = JarPipeline.merge(clientJar.getFile(), serverJar.getFile());
+            phase.addBytesRead(clientJar.getFile().length() + serverJar.getFile().length());
+            phase.addClassesParsed(mergedClasses.size());
+        }
 
-        try {
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            if (!refreshCache && destFile.exists() && etagFile.exists()) {
-                String etag = com.google.common.io.Files.asCharSource(etagFile, StandardCharsets.UTF_8).read();
-                connection.setRequestProperty("If-None-Match", etag);
+        Map<String, byte[]> classes = mergedClasses;
+        if (selectiveConfig != null) {
+            try (Metrics.Phase phase = context.metrics.start("select classes")) {
+                Set<String> selection = ClassSelector.select(selectiveConfig, mergedClasses, intermediaryMappings.getFile(), yarnMappings, context.out);
+                classes = new TreeMap<>(mergedClasses);
+                classes.keySet().retainAll(selection);
+                phase.addClassesSkipped(mergedClasses.size() - classes.size());
             }
+        }
 
-            connection.connect();
+        context.out.accept("Remapping " + version + " to intermediary...");
+        try (Metrics.Phase phase = context.metrics.start("remap intermediary")) {
+            // official names aren't unique, so classes which weren't selected are still needed to find inherited members
+            Map<String, byte[]> classpath = new TreeMap<>(mergedClasses);
+            classpath.keySet().removeAll(classes.keySet());
+            Map<String, byte[]> remapped = JarPipeline.remap(classes, classpath,
+                    TinyUtils.createTinyMappingProvider(intermediaryMappings.getFile().toPath(), "official", "intermediary"), intermediary.getParentFile());
+            File tempFile = artifacts.getTempFile(intermediary);
+            JarPipeline.writeJar(remapped, tempFile);
+            artifacts.commit(tempFile, intermediary);
+            phase.addBytesRead(intermediaryMappings.getFile().length());
+            phase.addBytesWritten(intermediary.length());
+            phase.addClassesParsed(classes.size());
+        }
+        return new CachedFile(intermediary, true, key);
+    }
 
-            int responseCode = connection.getResponseCode();
-            if ((responseCode < 200 || responseCode > 299) && responseCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
-                throw new IOException("Got HTTP " + responseCode + " from " + url);
-            }
+    private static CachedFile remapToYarn(RunContext context, ArtifactCache artifacts, String version, CachedFile intermediary, CachedFile yarnJar, String yarnVersion) {
+        String key = ArtifactCache.key("yarn", intermediary.getHash(), yarnJar.getHash());
+        File yarn = artifacts.getFile(key, version + "-yarn-" + yarnVersion + ".jar");
+        // a jar a daemon has mapped can't be replaced, so it is kept even when refreshing
+        if ((!context.refreshCache || artifacts.isMapped(yarn)) && yarn.exists()) {
+            context.out.accept("Using cached " + version + " yarn jar");
+            return new CachedFile(yarn, false, key);
+        }
 
-            long lastModified = connection.getHeaderFieldDate("Last-Modified", -1);
-            if (destFile.exists() && (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED || lastModified > 0 && destFile.lastModified() >= lastModified)) {
-                downloadedFileChanged = false;
-                return destFile;
-            }
+        context.out.accept("Remapping " + version + " to yarn...");
+        try (Metrics.Phase phase = context.metrics.start("remap yarn")) {
+            Map<String, byte[]> remapped = JarPipeline.remap(intermediary.getFile().toPath(), null, readYarnMappings(yarnJar.getFile(), "intermediary", "named"));
+            File tempFile = artifacts.getTempFile(yarn);
+            JarPipeline.writeJar(remapped, tempFile);
+            artifacts.commit(tempFile, yarn);
+            phase.addBytesRead(intermediary.getFile().length());
+            phase.addBytesWritten(yarn.length());
+            phase.addClassesParsed(remapped.size());
+        }
+        return new CachedFile(yarn, true, key);
+    }
 
-            downloadedFileChanged = true;
+    private static IMappingProvider readYarnMappings(File yarnJar, String fromNamespace, String toNamespace) {
+        // tiny-remapper only reads the mappings once it needs them, after the jar would have been closed
+        try (MappedJar jar = MappedJar.open(yarnJar)) {
+            byte[] tiny = jar.getBytes(jar.getEntry("mappings/mappings.tiny"));
+            BufferedReader tinyReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(tiny), StandardCharsets.UTF_8));
+            return TinyUtils.createTinyMappingProvider(tinyReader, fromNamespace, toNamespace);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the mappings in " + yarnJar, e);
+        }
+    }
 
-            destFile.getParentFile().mkdirs();
-            try {
-                Files.copy(connection.getInputStream(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            } catch (IOException e) {
-                destFile.delete();
-                throw e;
-            }
+    private static MappingTable loadYarnMappings(RunContext context, File yarnJar) {
+        context.out.accept("Loading yarn mappings...");
+        try (Metrics.Phase phase = context.metrics.start("load mappings")) {
+            phase.addBytesRead(yarnJar.length());
+            return MappingTable.load(yarnJar, context.refreshCache, context.err);
+        }
+    }
+
+    private static YarnRemappers buildYarnRemappers(RunContext context, MappingTable mappings, File fromJar) {
+        context.out.accept("Building yarn remappers...");
+        try (Metrics.Phase ignored = context.metrics.start("build remappers")) {
+            Remapper intermediaryToYarn = new MappingRemapper(mappings, "intermediary", "named");
+            // yarn names aren't unique, so members inherited from a superclass are found through the from jar
+            MappedJar hierarchyJar = MappedJar.open(fromJar);
+            ClassHierarchy hierarchy = new ClassHierarchy(hierarchyJar);
+            Remapper namedToIntermediaryClasses = new MappingRemapper(mappings, "named", "intermediary");
+            Remapper yarnToIntermediary = new MappingRemapper(mappings, "named", "intermediary", namedClass -> {
+                List<String> supertypes = new ArrayList<>();
+                for (String supertype : hierarchy.getSupertypes(namedToIntermediaryClasses.map(namedClass))) {
+                    supertypes.add(intermediaryToYarn.map(supertype));
+                }
+                return supertypes;
+            });
+            return new YarnRemappers(intermediaryToYarn, yarnToIntermediary, hierarchyJar);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open " + fromJar, e);
+        }
+    }
+
+    /**
+     * What a single run was asked for and records its work in. A daemon and the gradle task both run many comparisons in
+     * one JVM, so none of it is kept in statics.
+     */
+    private static class RunContext {
+        private final boolean refreshCache;
+        private final Metrics metrics;
+        // where progress and warnings go, which for a daemon is the client which sent the comparison
+        private final Consumer<String> out;
+        private final Consumer<String> err;
+
+        private RunContext(boolean refreshCache, Metrics metrics, Consumer<String> out, Consumer<String> err) {
+            this.refreshCache = refreshCache;
+            this.metrics = metrics;
+            this.out = out;
+            this.err = err;
+        }
+    }
+
+    private static class YarnRemappers {
+        private final Remapper intermediaryToYarn;
+        private final Remapper yarnToIntermediary;
+        private final MappedJar hierarchyJar;
 
-            if (lastModified > 0)
-                destFile.setLastModified(lastModified);
+        private YarnRemappers(Remapper intermediaryToYarn, Remapper yarnToIntermediary, MappedJar hierarchyJar) {
+            this.intermediaryToYarn = intermediaryToYarn;
+            this.yarnToIntermediary = yarnToIntermediary;
+            this.hierarchyJar = hierarchyJar;
+        }
+    }
+
+    /**
+     * The remapped jars of each version, in order, and the remappers between intermediary and yarn.
+     */
+    static class PreparedVersions implements Closeable {
+        private final List<File> jars;
+        private final Remapper intermediaryToYarn;
+        private final Remapper yarnToIntermediary;
+        private final MappedJar hierarchyJar;
+
+        private PreparedVersions(List<File> jars, Remapper intermediaryToYarn, Remapper yarnToIntermediary, MappedJar hierarchyJar) {
+            this.jars = jars;
+            this.intermediaryToYarn = intermediaryToYarn;
+            this.yarnToIntermediary = yarnToIntermediary;
+            this.hierarchyJar = hierarchyJar;
+        }
+
+        List<File> getJars() {
+            return jars;
+        }
 
-            String etag = connection.getHeaderField("ETag");
-            if (etag != null) {
-                com.google.common.io.Files.asCharSink(etagFile, StandardCharsets.UTF_8).write(etag);
+        @Override
+        public void close() throws IOException {
+            if (hierarchyJar != null) {
+                hierarchyJar.close();
             }
-            return destFile;
-        } catch (UnknownHostException e) {
-            if (destFile.exists()) {
-                return destFile;
+        }
+    }
+
+    /**
+     * A version as it is being compared, either its jar or its fingerprint index.
+     */
+    private static class ComparedVersion {
+        private final File file;
+        private final MappedJar jar;
+        private final JarComparer.ParsedClasses parsedClasses;
+        private final FingerprintIndex index;
+
+        private ComparedVersion(File file, MappedJar jar, JarComparer.ParsedClasses parsedClasses, FingerprintIndex index) {
+            this.file = file;
+            this.jar = jar;
+            this.parsedClasses = parsedClasses;
+            this.index = index;
+        }
+
+        private void close(Daemon daemon) {
+            // a daemon keeps its jars open for the next comparison
+            if (daemon == null) {
+                MusicalCode.close(jar);
             }
-            throw new UncheckedIOException("Error downloading file " + dest + " from " + url, e);
-        } catch (IOException e) {
-            throw new UncheckedIOException("Error downloading file " + dest + " from " + url, e);
+        }
+    }
+
+    private static class VersionTasks {
+        private final TaskGraph.Task<CachedFile> intermediary;
+        private final TaskGraph.Task<CachedFile> yarn;
+
+        private VersionTasks(TaskGraph.Task<CachedFile> intermediary, TaskGraph.Task<CachedFile> yarn) {
+            this.intermediary = intermediary;
+            this.yarn = yarn;
         }
     }
 
@@ -326,6 +853,7 @@ public class MusicalCode {
             private Download server;
             private static class Download {
                 private String url;
+                private String sha1;
             }
         }
     }
@@ -0,0 +1,374 @@
+package net.earthcomputer.musicalcode;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Pairs removed methods with added ones which have much the same code, so that a method which was renamed or moved to
+ * another class is reported as such, rather than as a removal and an unrelated addition.
+ *
+ * <p>Each method is reduced to the set of shingles of its normalized instructions, and a MinHash signature estimates
+ * how similar two sets are. The signatures of the added methods are split into bands and put into buckets by the hash
+ * of each band, so a removed method is only compared with the added methods sharing a bucket with it, rather than with
+ * every added method in the jar.</p>
+ */
+public final class RenameDetector {
+    // instructions per shingle
+    private static final int SHINGLE_SIZE = 4;
+    // methods shorter than this are mostly getters and delegates, which look alike whatever they do
+    private static final int MIN_INSTRUCTIONS = 12;
+    private static final int BANDS = 32;
+    private static final int ROWS = 4;
+    private static final int HASHES = BANDS * ROWS;
+    // the fraction of equal hashes, which estimates the fraction of shared shingles
+    private static final double MIN_SIMILARITY = 0.7;
+
+    private final MappedJar fromJar;
+    private final List<MethodSignature> addedMethods;
+    private final Map<Long, List<MethodSignature>> buckets = new HashMap<>();
+
+    private RenameDetector(MappedJar fromJar, List<MethodSignature> addedMethods) {
+        this.fromJar = fromJar;
+        this.addedMethods = addedMethods;
+        for (MethodSignature method : addedMethods) {
+            for (int band = 0; band < BANDS; band++) {
+                buckets.computeIfAbsent(method.getBandHash(band), k -> new ArrayList<>()).add(method);
+            }
+        }
+    }
+
+    /**
+     * Finds every method added anywhere in the to jar, which the removed methods can then be matched against. Classes
+     * whose bytes haven't changed are skipped without being parsed.
+     */
+    public static RenameDetector of(MappedJar fromJar, MappedJar toJar, int threads) {
+        List<MappedJar.Entry> changedEntries = new ArrayList<>();
+        for (MappedJar.Entry toEntry : toJar.getEntries()) {
+            if (toEntry.getName().endsWith(".class")) {
+                MappedJar.Entry fromEntry = fromJar.getEntry(toEntry.getName());
+                if (fromEntry == null || fromEntry.getCrc() != toEntry.getCrc() || fromEntry.getSize() != toEntry.getSize()) {
+                    changedEntries.add(toEntry);
+                }
+            }
+        }
+
+        ExecutorService executor = new ForkJoinPool(Math.max(1, threads));
+        try {
+            List<Future<List<MethodSignature>>> results = new ArrayList<>(changedEntries.size());
+            for (MappedJar.Entry toEntry : changedEntries) {
+                results.add(executor.submit(() -> {
+                    ClassNode toClass = parseClass(toJar, toEntry, 0);
+                    MappedJar.Entry fromEntry = fromJar.getEntry(toEntry.getName());
+                    Set<String> fromMethods = new HashSet<>();
+                    if (fromEntry != null) {
+                        for (MethodNode method : parseClass(fromJar, fromEntry, ClassReader.SKIP_CODE).methods) {
+                            fromMethods.add(method.name + method.desc);
+                        }
+                    }
+                    List<MethodSignature> added = new ArrayList<>();
+                    for (MethodNode method : toClass.methods) {
+                        if (!fromMethods.contains(method.name + method.desc)) {
+                            MethodSignature signature = MethodSignature.of(toClass.name, method);
+                            if (signature != null) {
+                                added.add(signature);
+                            }
+                        }
+                    }
+                    return added;
+                }));
+            }
+            List<MethodSignature> addedMethods = new ArrayList<>();
+            for (Future<List<MethodSignature>> result : results) {
+                addedMethods.addAll(result.get());
+            }
+            return new RenameDetector(fromJar, addedMethods);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while looking for renames", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public int getAddedMethodCount() {
+        return addedMethods.size();
+    }
+
+    /**
+     * Matches the removed methods among the given changes, and the methods of removed classes, with the added methods
+     * most like them. Each added method is matched at most once, to whichever removed method is most like it.
+     */
+    public List<Rename> match(List<JarComparer.Change> changes) {
+        List<MethodSignature> removedMethods = new ArrayList<>();
+        // a removed class is reported along with each of its watched methods, which must only be matched once
+        Set<String> seenMethods = new HashSet<>();
+        Map<String, ClassNode> fromClasses = new HashMap<>();
+        for (JarComparer.Change change : changes) {
+            if (!change.getAction().equals("removed")) {
+                continue;
+            }
+            if (change.getKind() == JarComparer.Change.Kind.METHOD) {
+                ClassNode fromClass = fromClasses.computeIfAbsent(change.getClassName(), this::parseClass);
+                for (MethodNode method : fromClass.methods) {
+                    if (method.name.equals(change.getName()) && method.desc.equals(change.getDesc())) {
+                        addSignature(removedMethods, seenMethods, fromClass.name, method);
+                    }
+                }
+            } else if (change.getKind() == JarComparer.Change.Kind.CLASS) {
+                ClassNode fromClass = fromClasses.computeIfAbsent(change.getClassName(), this::parseClass);
+                for (MethodNode method : fromClass.methods) {
+                    addSignature(removedMethods, seenMethods, fromClass.name, method);
+                }
+            }
+        }
+
+        // the most similar pairs are matched first
+        List<Rename> candidates = new ArrayList<>();
+        for (MethodSignature removed : removedMethods) {
+            Set<MethodSignature> seen = new HashSet<>();
+            for (int band = 0; band < BANDS; band++) {
+                for (MethodSignature added : buckets.getOrDefault(removed.getBandHash(band), Collections.emptyList())) {
+                    if (seen.add(added)) {
+                        double similarity = removed.similarity(added);
+                        if (similarity >= MIN_SIMILARITY) {
+                            candidates.add(new Rename(removed, added, similarity));
+                        }
+                    }
+                }
+            }
+        }
+        candidates.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+
+        Set<MethodSignature> matched = new HashSet<>();
+        List<Rename> renames = new ArrayList<>();
+        for (Rename candidate : candidates) {
+            if (!matched.contains(candidate.from) && !matched.contains(candidate.to)) {
+                matched.add(candidate.from);
+                matched.add(candidate.to);
+                renames.add(candidate);
+            }
+        }
+        return renames;
+    }
+
+    private static void addSignature(List<MethodSignature> methods, Set<String> seenMethods, String className, MethodNode method) {
+        if (!seenMethods.add(className + "." + method.name + method.desc)) {
+            return;
+        }
+        MethodSignature signature = MethodSignature.of(className, method);
+        if (signature != null) {
+            methods.add(signature);
+        }
+    }
+
+    private ClassNode parseClass(String className) {
+        MappedJar.Entry entry = fromJar.getEntry(className + ".class");
+        if (entry == null) {
+            return new ClassNode();
+        }
+        return parseClass(fromJar, entry, 0);
+    }
+
+    private static ClassNode parseClass(MappedJar jar, MappedJar.Entry entry, int flags) {
+        ClassNode node = new ClassNode();
+        try {
+            new ClassReader(jar.getBytes(entry)).accept(node, flags | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return node;
+    }
+
+    /**
+     * A removed method and the added method it most likely became.
+     */
+    public static class Rename {
+        private final MethodSignature from;
+        private final MethodSignature to;
+        private final double similarity;
+
+        private Rename(MethodSignature from, MethodSignature to, double similarity) {
+            this.from = from;
+            this.to = to;
+            this.similarity = similarity;
+        }
+
+        public String describe(Remapper intermediary2Yarn) {
+            String action = from.className.equals(to.className) ? "renamed" : "moved";
+            return "Method " + from.describe(intermediary2Yarn) + " was " + action + " to " + to.describe(intermediary2Yarn)
+                    + " (" + Math.round(similarity * 100) + "% similar)";
+        }
+    }
+
+    private static class MethodSignature {
+        private final String className;
+        private final String name;
+        private final String desc;
+        private final long[] minHashes;
+
+        private MethodSignature(String className, String name, String desc, long[] minHashes) {
+            this.className = className;
+            this.name = name;
+            this.desc = desc;
+            this.minHashes = minHashes;
+        }
+
+        /**
+         * Returns the signature of the method's code, or null if it has too little code to tell it apart.
+         */
+        static MethodSignature of(String className, MethodNode method) {
+            if (method.instructions == null) {
+                return null;
+            }
+            long[] tokens = new long[method.instructions.size()];
+            int tokenCount = 0;
+            for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+                // labels, line numbers and frames are left out, so that only the operations themselves are compared
+                if (insn.getOpcode() != -1) {
+                    tokens[tokenCount++] = hashInstruction(insn);
+                }
+            }
+            if (tokenCount < MIN_INSTRUCTIONS) {
+                return null;
+            }
+
+            long[] minHashes = new long[HASHES];
+            Arrays.fill(minHashes, Long.MAX_VALUE);
+            for (int i = 0; i + SHINGLE_SIZE <= tokenCount; i++) {
+                long shingle = 0;
+                for (int j = 0; j < SHINGLE_SIZE; j++) {
+                    shingle = mix(shingle * 31 + tokens[i + j]);
+                }
+                // each hash function is the shingle mixed with a different seed
+                for (int k = 0; k < HASHES; k++) {
+                    long hash = mix(shingle ^ (k + 1) * 0x9e3779b97f4a7c15L);
+                    if (hash < minHashes[k]) {
+                        minHashes[k] = hash;
+                    }
+                }
+            }
+            return new MethodSignature(className, method.name, method.desc, minHashes);
+        }
+
+        long getBandHash(int band) {
+            long hash = band;
+            for (int row = 0; row < ROWS; row++) {
+                hash = mix(hash * 31 + minHashes[band * ROWS + row]);
+            }
+            return hash;
+        }
+
+        double similarity(MethodSignature other) {
+            int equal = 0;
+            for (int k = 0; k < HASHES; k++) {
+                if (minHashes[k] == other.minHashes[k]) {
+                    equal++;
+                }
+            }
+            return (double) equal / HASHES;
+        }
+
+        String describe(Remapper intermediary2Yarn) {
+            return intermediary2Yarn.map(className) + "." + intermediary2Yarn.mapMethodName(className, name, desc) + intermediary2Yarn.mapMethodDesc(desc);
+        }
+    }
+
+    /**
+     * Hashes an instruction by what it does. Local variable indexes and jump targets are left out, since they shift
+     * whenever code is added before them.
+     */
+    private static long hashInstruction(AbstractInsnNode insn) {
+        long hash = insn.getOpcode();
+        switch (insn.getType()) {
+            case AbstractInsnNode.INT_INSN:
+                hash = hash * 31 + ((IntInsnNode) insn).operand;
+                break;
+            case AbstractInsnNode.TYPE_INSN:
+                hash = hash * 31 + ((TypeInsnNode) insn).desc.hashCode();
+                break;
+            case AbstractInsnNode.FIELD_INSN: {
+                FieldInsnNode fieldInsn = (FieldInsnNode) insn;
+                hash = (hash * 31 + fieldInsn.owner.hashCode()) * 31 + (fieldInsn.name + fieldInsn.desc).hashCode();
+                break;
+            }
+            case AbstractInsnNode.METHOD_INSN: {
+                MethodInsnNode methodInsn = (MethodInsnNode) insn;
+                hash = (hash * 31 + methodInsn.owner.hashCode()) * 31 + (methodInsn.name + methodInsn.desc).hashCode();
+                break;
+            }
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN: {
+                InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+                hash = hash * 31 + indy.desc.hashCode();
+                // lambda bodies are named after the method they're in, so only the interface they implement counts
+                for (Object bsmArg : indy.bsmArgs) {
+                    if (bsmArg instanceof Type) {
+                        hash = hash * 31 + bsmArg.hashCode();
+                    } else if (!(bsmArg instanceof Handle)) {
+                        hash = hash * 31 + String.valueOf(bsmArg).hashCode();
+                    }
+                }
+                break;
+            }
+            case AbstractInsnNode.LDC_INSN:
+                hash = hash * 31 + String.valueOf(((LdcInsnNode) insn).cst).hashCode();
+                break;
+            case AbstractInsnNode.IINC_INSN:
+                hash = hash * 31 + ((IincInsnNode) insn).incr;
+                break;
+            case AbstractInsnNode.TABLESWITCH_INSN:
+                hash = (hash * 31 + ((TableSwitchInsnNode) insn).min) * 31 + ((TableSwitchInsnNode) insn).max;
+                break;
+            case AbstractInsnNode.LOOKUPSWITCH_INSN:
+                hash = hash * 31 + ((LookupSwitchInsnNode) insn).keys.hashCode();
+                break;
+            case AbstractInsnNode.MULTIANEWARRAY_INSN:
+                hash = (hash * 31 + ((MultiANewArrayInsnNode) insn).desc.hashCode()) * 31 + ((MultiANewArrayInsnNode) insn).dims;
+                break;
+            default:
+                break;
+        }
+        return mix(hash);
+    }
+
+    // the finalizer of SplitMix64, which spreads every input bit over the whole output
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -0,0 +1,257 @@
+package net.earthcomputer.musicalcode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * The results of comparing the classes of two jars, kept between runs so that a rerun only compares what it hasn't
+ * compared before. Each class records every member it has, and whether each was added, removed, changed or unchanged.
+ * Method code is only compared for the methods a config watches, so other methods may be unknown until a config
+ * watches them, and only then is the class compared again.
+ *
+ * <p>The results are cached next to the to jar, named after the from jar. The remapped jars are content-addressed, so
+ * this keys the results by the hashes of both jars.</p>
+ */
+public class ResultCache {
+    private static final int MAGIC = 0x4d435243; // MCRC
+    private static final int FORMAT_VERSION = 1;
+
+    // a class is added, removed, present in both jars or absent from both, and a member is any of the rest
+    static final byte UNKNOWN = 0, UNCHANGED = 1, CHANGED = 2, ADDED = 3, REMOVED = 4, PRESENT = 5, ABSENT = 6;
+
+    private final File file;
+    private final File fromJar;
+    private final File toJar;
+    private final Map<String, ClassResult> classes;
+    private volatile boolean dirty;
+
+    private ResultCache(File file, File fromJar, File toJar, Map<String, ClassResult> classes) {
+        this.file = file;
+        this.fromJar = fromJar;
+        this.toJar = toJar;
+        this.classes = classes;
+    }
+
+    public static ResultCache load(File fromJar, File toJar, boolean refresh, Consumer<String> err) {
+        String jarName = toJar.getName();
+        if (jarName.endsWith(".jar")) {
+            jarName = jarName.substring(0, jarName.length() - 4);
+        }
+        File file = new File(toJar.getParentFile(), jarName + ".results-" + ArtifactCache.key(fromJar.getParentFile().getName(), fromJar.getName()));
+
+        Map<String, ClassResult> classes = new ConcurrentHashMap<>();
+        if (!refresh && file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (!read(in, fromJar, toJar, classes)) {
+                    classes.clear();
+                }
+            } catch (IOException e) {
+                err.accept("Failed to read cached results " + file + ", comparing again");
+                classes.clear();
+            }
+        }
+        return new ResultCache(file, fromJar, toJar, classes);
+    }
+
+    ClassResult get(String className) {
+        return classes.get(className);
+    }
+
+    void put(String className, ClassResult result) {
+        classes.put(className, result);
+        dirty = true;
+    }
+
+    /**
+     * Writes the results back to the cache, if anything was compared.
+     */
+    public void save() {
+        if (!dirty) {
+            return;
+        }
+        // written to a temporary file first, so that a failed write doesn't leave the cached results half-written. Its
+        // name is unique, so two runs saving the same results at once don't write into the same file
+        File tempFile = null;
+        try {
+            tempFile = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), "tmp-", "-" + file.getName()).toFile();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                write(out);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            if (tempFile != null) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+            throw new UncheckedIOException("Failed to write cached results " + file, e);
+        }
+        dirty = false;
+    }
+
+    private static boolean read(DataInputStream in, File fromJar, File toJar, Map<String, ClassResult> classes) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            return false;
+        }
+        // the results are stale if either jar has been rewritten since
+        if (in.readLong() != fromJar.length() || in.readLong() != fromJar.lastModified()
+                || in.readLong() != toJar.length() || in.readLong() != toJar.lastModified()) {
+            return false;
+        }
+        int classCount = in.readInt();
+        for (int i = 0; i < classCount; i++) {
+            String name = in.readUTF();
+            byte state = in.readByte();
+            List<MemberResult> fields = readMembers(in);
+            List<MemberResult> methods = readMembers(in);
+            classes.put(name, new ClassResult(name, state, fields, methods));
+        }
+        return true;
+    }
+
+    private static List<MemberResult> readMembers(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<MemberResult> members = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            members.add(new MemberResult(in.readUTF(), in.readUTF(), in.readByte()));
+        }
+        return members;
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(fromJar.length());
+        out.writeLong(fromJar.lastModified());
+        out.writeLong(toJar.length());
+        out.writeLong(toJar.lastModified());
+        List<ClassResult> results = new ArrayList<>(classes.values());
+        out.writeInt(results.size());
+        for (ClassResult result : results) {
+            out.writeUTF(result.name);
+            out.writeByte(result.state);
+            writeMembers(out, result.fields);
+            writeMembers(out, result.methods);
+        }
+    }
+
+    private static void writeMembers(DataOutputStream out, List<MemberResult> members) throws IOException {
+        out.writeInt(members.size());
+        for (MemberResult member : members) {
+            out.writeUTF(member.name);
+            out.writeUTF(member.desc);
+            out.writeByte(member.status);
+        }
+    }
+
+    /**
+     * The result of comparing a class. Its members are listed in the order the comparison reports them, with those of
+     * the from class first, then those only in the to class.
+     */
+    static class ClassResult {
+        private final String name;
+        private final byte state;
+        private final List<MemberResult> fields;
+        private final List<MemberResult> methods;
+
+        ClassResult(String name, byte state, List<MemberResult> fields, List<MemberResult> methods) {
+            this.name = name;
+            this.state = state;
+            this.fields = Collections.unmodifiableList(fields);
+            this.methods = Collections.unmodifiableList(methods);
+        }
+
+        byte getState() {
+            return state;
+        }
+
+        List<MemberResult> getMethods() {
+            return methods;
+        }
+
+        /**
+         * Returns whether the pattern watches a method whose code hasn't been compared yet.
+         */
+        boolean isMissingMethods(MemberPattern memberPattern) {
+            for (MemberResult method : methods) {
+                if (method.status == UNKNOWN && memberPattern.matchesMethod(name, method.name, method.desc)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Reports the changes the pattern watches, just as comparing the class would.
+         */
+        void replay(MemberPattern memberPattern, Consumer<JarComparer.Change> changes) {
+            if (state == ABSENT) {
+                return;
+            }
+            if (state != PRESENT) {
+                changes.accept(JarComparer.Change.ofClass(name, state == ADDED ? "added" : "removed"));
+            }
+            for (MemberResult field : fields) {
+                if (memberPattern.matchesField(name, field.name, field.desc) && field.getAction() != null) {
+                    changes.accept(JarComparer.Change.ofField(name, field.name, field.desc, field.getAction()));
+                }
+            }
+            for (MemberResult method : methods) {
+                if (memberPattern.matchesMethod(name, method.name, method.desc) && method.getAction() != null) {
+                    changes.accept(JarComparer.Change.ofMethod(name, method.name, method.desc, method.getAction()));
+                }
+            }
+        }
+    }
+
+    static class MemberResult {
+        private final String name;
+        private final String desc;
+        private final byte status;
+
+        MemberResult(String name, String desc, byte status) {
+            this.name = name;
+            this.desc = desc;
+            this.status = status;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getDesc() {
+            return desc;
+        }
+
+        byte getStatus() {
+            return status;
+        }
+
+        private String getAction() {
+            switch (status) {
+                case CHANGED:
+                    return "changed";
+                case ADDED:
+                    return "added";
+                case REMOVED:
+                    return "removed";
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package net.earthcomputer.musicalcode;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A small dependency graph of tasks. Each task starts as soon as all of its dependencies have finished, and at most
+ * {@code threads} tasks run at once. If a task fails, every task depending on it fails with the same exception
+ * without being run.
+ */
+public class TaskGraph implements Closeable {
+    private final ExecutorService executor;
+
+    public TaskGraph(int threads) {
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "MusicalCode task " + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public <T> Task<T> add(String name, Supplier<T> action, Task<?>... dependencies) {
+        CompletableFuture<?>[] dependencyFutures = new CompletableFuture<?>[dependencies.length];
+        for (int i = 0; i < dependencies.length; i++) {
+            dependencyFutures[i] = dependencies[i].future;
+        }
+        return new Task<>(name, CompletableFuture.allOf(dependencyFutures).thenApplyAsync(v -> action.get(), executor));
+    }
+
+    /**
+     * Adds a task which is already running elsewhere, such as a download, so other tasks can depend on it.
+     */
+    public <T> Task<T> add(String name, CompletableFuture<T> future) {
+        return new Task<>(name, future);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    public static class Task<T> {
+        private final String name;
+        private final CompletableFuture<T> future;
+
+        private Task(String name, CompletableFuture<T> future) {
+            this.name = name;
+            this.future = future;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Waits for this task to finish and returns its result, rethrowing the exception it failed with.
+         */
+        public T get() {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new RuntimeException("Task " + name + " failed", e.getCause());
+            }
+        }
+    }
+}
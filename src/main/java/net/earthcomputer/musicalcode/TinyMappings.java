@@ -0,0 +1,198 @@
+package net.earthcomputer.musicalcode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+/**
+ * The classes, fields and methods of a tiny mapping file, in either the v1 format used by intermediary or the v2 format
+ * used by yarn. A name which is missing in a namespace is the same as the name in the first namespace, and member
+ * descriptors are always in the first namespace.
+ */
+public final class TinyMappings {
+    private final List<String> namespaces;
+    private final List<ClassMapping> classes;
+
+    private TinyMappings(List<String> namespaces, List<ClassMapping> classes) {
+        this.namespaces = namespaces;
+        this.classes = classes;
+    }
+
+    public static TinyMappings read(File tinyFile) {
+        try (BufferedReader reader = Files.newBufferedReader(tinyFile.toPath(), StandardCharsets.UTF_8)) {
+            return read(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read mappings " + tinyFile, e);
+        }
+    }
+
+    /**
+     * Reads the {@code mappings/mappings.tiny} file inside a yarn jar.
+     */
+    public static TinyMappings readFromYarnJar(File yarnJar) {
+        try (JarFile jarFile = new JarFile(yarnJar);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(jarFile.getInputStream(jarFile.getEntry("mappings/mappings.tiny")), StandardCharsets.UTF_8))) {
+            return read(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read mappings from " + yarnJar, e);
+        }
+    }
+
+    public static TinyMappings read(BufferedReader reader) throws IOException {
+        String header = reader.readLine();
+        if (header == null) {
+            throw new IOException("Empty mappings file");
+        }
+        String[] headerParts = header.split("\t");
+        if (headerParts[0].equals("v1")) {
+            return readV1(reader, Arrays.asList(headerParts).subList(1, headerParts.length));
+        } else if (headerParts[0].equals("tiny") && headerParts.length >= 3 && headerParts[1].equals("2")) {
+            return readV2(reader, Arrays.asList(headerParts).subList(3, headerParts.length));
+        } else {
+            throw new IOException("Unsupported mappings format: " + header);
+        }
+    }
+
+    private static TinyMappings readV1(BufferedReader reader, List<String> namespaces) throws IOException {
+        // members refer to their class by its first name, and can come before the class itself
+        Map<String, ClassMapping> classes = new LinkedHashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.split("\t", -1);
+            switch (parts[0]) {
+                case "CLASS": {
+                    String[] names = readNames(parts, 1, namespaces.size(), null);
+                    ClassMapping existing = classes.get(names[0]);
+                    if (existing == null) {
+                        classes.put(names[0], new ClassMapping(names));
+                    } else {
+                        System.arraycopy(names, 0, existing.names, 0, names.length);
+                    }
+                    break;
+                }
+                case "FIELD":
+                case "METHOD": {
+                    ClassMapping owner = classes.computeIfAbsent(parts[1], k -> new ClassMapping(readNames(new String[] {k}, 0, namespaces.size(), k)));
+                    MemberMapping member = new MemberMapping(parts[2], readNames(parts, 3, namespaces.size(), null));
+                    (parts[0].equals("FIELD") ? owner.fields : owner.methods).add(member);
+                    break;
+                }
+            }
+        }
+        return new TinyMappings(namespaces, new ArrayList<>(classes.values()));
+    }
+
+    private static TinyMappings readV2(BufferedReader reader, List<String> namespaces) throws IOException {
+        List<ClassMapping> classes = new ArrayList<>();
+        ClassMapping currentClass = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // classes have no indentation and members have one tab. Anything deeper, such as parameters and
+            // comments, and the header properties, aren't needed
+            if (line.startsWith("c\t")) {
+                currentClass = new ClassMapping(readNames(line.split("\t", -1), 1, namespaces.size(), null));
+                classes.add(currentClass);
+            } else if (currentClass != null && (line.startsWith("\tf\t") || line.startsWith("\tm\t"))) {
+                String[] parts = line.split("\t", -1);
+                MemberMapping member = new MemberMapping(parts[2], readNames(parts, 3, namespaces.size(), null));
+                (parts[1].equals("f") ? currentClass.fields : currentClass.methods).add(member);
+            }
+        }
+        return new TinyMappings(namespaces, classes);
+    }
+
+    private static String[] readNames(String[] parts, int start, int count, String defaultName) {
+        String[] names = new String[count];
+        String firstName = start < parts.length && !parts[start].isEmpty() ? parts[start] : defaultName;
+        for (int i = 0; i < count; i++) {
+            int index = start + i;
+            names[i] = index < parts.length && !parts[index].isEmpty() ? parts[index] : firstName;
+        }
+        return names;
+    }
+
+    public List<String> getNamespaces() {
+        return Collections.unmodifiableList(namespaces);
+    }
+
+    public int getNamespaceIndex(String namespace) {
+        int index = namespaces.indexOf(namespace);
+        if (index == -1) {
+            throw new IllegalArgumentException("Mappings do not have namespace " + namespace + ", only " + namespaces);
+        }
+        return index;
+    }
+
+    public List<ClassMapping> getClasses() {
+        return Collections.unmodifiableList(classes);
+    }
+
+    public Map<String, String> getClassNames(String fromNamespace, String toNamespace) {
+        int from = getNamespaceIndex(fromNamespace);
+        int to = getNamespaceIndex(toNamespace);
+        Map<String, String> classNames = new HashMap<>(classes.size() * 4 / 3 + 1);
+        for (ClassMapping clazz : classes) {
+            classNames.put(clazz.names[from], clazz.names[to]);
+        }
+        return classNames;
+    }
+
+    public static Map<String, String> readClassNames(File tinyFile, String fromNamespace, String toNamespace) {
+        return read(tinyFile).getClassNames(fromNamespace, toNamespace);
+    }
+
+    public static class ClassMapping {
+        private final String[] names;
+        private final List<MemberMapping> fields = new ArrayList<>();
+        private final List<MemberMapping> methods = new ArrayList<>();
+
+        private ClassMapping(String[] names) {
+            this.names = names;
+        }
+
+        public String getName(int namespace) {
+            return names[namespace];
+        }
+
+        public List<MemberMapping> getFields() {
+            return fields;
+        }
+
+        public List<MemberMapping> getMethods() {
+            return methods;
+        }
+    }
+
+    public static class MemberMapping {
+        private final String desc;
+        private final String[] names;
+
+        private MemberMapping(String desc, String[] names) {
+            this.desc = desc;
+            this.names = names;
+        }
+
+        /**
+         * The descriptor in the first namespace.
+         */
+        public String getDesc() {
+            return desc;
+        }
+
+        public String getName(int namespace) {
+            return names[namespace];
+        }
+    }
+}
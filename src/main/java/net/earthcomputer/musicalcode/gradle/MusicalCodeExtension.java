@@ -10,6 +10,7 @@ public class MusicalCodeExtension {
     private String to;
     private File config;
     private File output;
+    private Integer daemonPort;
 
     public MusicalCodeExtension(Project project) {
         this.project = project;
@@ -62,4 +63,16 @@ public class MusicalCodeExtension {
     public void output(Object output) {
         this.output = project.file(output);
     }
+
+    public Integer getDaemonPort() {
+        return daemonPort;
+    }
+
+    public void setDaemonPort(Integer daemonPort) {
+        this.daemonPort = daemonPort;
+    }
+
+    public void daemonPort(Integer daemonPort) {
+        this.daemonPort = daemonPort;
+    }
 }
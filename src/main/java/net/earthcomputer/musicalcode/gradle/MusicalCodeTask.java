@@ -17,6 +17,7 @@ public class MusicalCodeTask extends DefaultTask {
     private String toVersion;
     private File config;
     private File output;
+    private Integer daemonPort;
 
     public MusicalCodeTask() {
         // never cache this task
@@ -31,6 +32,7 @@ public class MusicalCodeTask extends DefaultTask {
             config = getProject().file("config.txt");
         }
         output = musicalCode.getOutput();
+        daemonPort = musicalCode.getDaemonPort();
     }
 
     @Option(option = "from", description = "The version to check from")
@@ -51,6 +53,11 @@ public class MusicalCodeTask extends DefaultTask {
         this.output = getProject().file(output);
     }
 
+    @Option(option = "daemonPort", description = "Sends the comparison to the MusicalCode daemon on this port, if one is running")
+    public void daemonPort(String port) {
+        this.daemonPort = Integer.valueOf(port);
+    }
+
     @TaskAction
     public void runTask() {
         LoomGradleExtension loom = getProject().getExtensions().findByType(LoomGradleExtension.class);
@@ -86,6 +93,9 @@ public class MusicalCodeTask extends DefaultTask {
         if (output != null) {
             Collections.addAll(args, "--output", output.getAbsolutePath());
         }
+        if (daemonPort != null) {
+            Collections.addAll(args, "--useDaemon", "--daemonPort", String.valueOf(daemonPort));
+        }
         MusicalCode.main(args.toArray(new String[0]));
         getProject().getLogger().info("===== FINISHED RUNNING MUSICAL CODE =====");
     }
@@ -0,0 +1,179 @@
+package net.earthcomputer.musicalcode;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Downloads from a local server through {@code --mirror}, which stands in for the real hosts.
+ */
+public class DownloaderTest {
+    private static final String URL = "https://example.com/files/version.json";
+    private static final String JAR_URL = "https://example.com/files/client.jar";
+
+    private HttpServer server;
+    private File cacheDir;
+    private volatile byte[] content = "first".getBytes(StandardCharsets.UTF_8);
+    private volatile String etag = "\"1\"";
+    // the If-None-Match header of each request, or "" if there was none
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = Files.createTempDirectory("musicalcode-test").toFile();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/example.com/files/", this::handle);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        try (Stream<Path> files = Files.walk(cacheDir.toPath())) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        requests.add(ifNoneMatch == null ? "" : ifNoneMatch);
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+        }
+        exchange.close();
+    }
+
+    private Downloader newDownloader(String mirror) {
+        return new Downloader(cacheDir, new ArtifactCache(cacheDir, 0), false, 1, mirror, new Metrics(), line -> { });
+    }
+
+    private String mirror() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    @Test
+    public void testEtagReuse() throws IOException {
+        try (Downloader downloader = newDownloader(mirror())) {
+            CachedFile first = downloader.download(URL, "version.json");
+            assertTrue(first.isChanged());
+            assertArrayEquals(content, Files.readAllBytes(first.getFile().toPath()));
+
+            CachedFile second = downloader.download(URL, "version.json");
+            assertFalse(second.isChanged());
+            assertEquals(first.getHash(), second.getHash());
+            assertArrayEquals(content, Files.readAllBytes(second.getFile().toPath()));
+        }
+        assertEquals(Arrays.asList("", "\"1\""), requests);
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void testDownloadsChangedFile() throws IOException {
+        try (Downloader downloader = newDownloader(mirror())) {
+            CachedFile first = downloader.download(URL, "version.json");
+            content = "second".getBytes(StandardCharsets.UTF_8);
+            etag = "\"2\"";
+            CachedFile second = downloader.download(URL, "version.json");
+            assertTrue(second.isChanged());
+            assertFalse(first.getHash().equals(second.getHash()));
+            assertArrayEquals(content, Files.readAllBytes(second.getFile().toPath()));
+        }
+        assertEquals(Arrays.asList("", "\"1\""), requests);
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void testOfflineUsesCachedFile() throws IOException {
+        CachedFile online;
+        try (Downloader downloader = newDownloader(mirror())) {
+            online = downloader.download(URL, "version.json");
+        }
+        // the .invalid top level domain never resolves
+        try (Downloader downloader = newDownloader("http://musicalcode.invalid/")) {
+            CachedFile offline = downloader.download(URL, "version.json");
+            assertFalse(offline.isChanged());
+            assertEquals(online.getFile(), offline.getFile());
+            assertEquals(online.getHash(), offline.getHash());
+        }
+    }
+
+    @Test
+    public void testOfflineWithoutCachedFile() {
+        try (Downloader downloader = newDownloader("http://musicalcode.invalid/")) {
+            downloader.download(URL, "version.json");
+            fail("Downloaded a file while offline");
+        } catch (UncheckedIOException expected) {
+            assertFalse(new File(cacheDir, "version.json").exists());
+        }
+    }
+
+    @Test
+    public void testDownloadVerified() throws IOException {
+        String sha1 = ArtifactCache.SHA1.hashBytes(content).toString();
+        try (Downloader downloader = newDownloader(mirror())) {
+            CachedFile first = downloader.downloadVerified(JAR_URL, sha1, "client.jar");
+            assertTrue(first.isChanged());
+            assertEquals(sha1, first.getHash());
+            assertArrayEquals(content, Files.readAllBytes(first.getFile().toPath()));
+
+            // a verified file is never downloaded again
+            CachedFile second = downloader.downloadVerified(JAR_URL, sha1, "client.jar");
+            assertFalse(second.isChanged());
+            assertEquals(first.getFile(), second.getFile());
+        }
+        assertEquals(1, requests.size());
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void testDownloadVerifiedMismatch() throws IOException {
+        String sha1 = ArtifactCache.SHA1.hashBytes("something else".getBytes(StandardCharsets.UTF_8)).toString();
+        try (Downloader downloader = newDownloader(mirror())) {
+            downloader.downloadVerified(JAR_URL, sha1, "client.jar");
+            fail("Accepted a file with the wrong SHA-1");
+        } catch (UncheckedIOException expected) {
+            assertFalse(new ArtifactCache(cacheDir, 0).getFile(sha1, "client.jar").exists());
+        }
+        assertNoTempFiles();
+    }
+
+    private void assertNoTempFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(cacheDir.toPath())) {
+            List<Path> tempFiles = files.filter(file -> file.getFileName().toString().startsWith("tmp-")).collect(Collectors.toList());
+            assertEquals(Collections.emptyList(), tempFiles);
+        }
+    }
+}
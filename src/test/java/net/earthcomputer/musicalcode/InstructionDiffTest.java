@@ -0,0 +1,178 @@
+package net.earthcomputer.musicalcode;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the diff against the longest common subsequence found by brute force.
+ */
+public class InstructionDiffTest {
+
+    @Test
+    public void testEmpty() {
+        assertDiff(new int[0], new int[0]);
+        assertDiff(new int[0], new int[] {1, 2, 3});
+        assertDiff(new int[] {1, 2, 3}, new int[0]);
+    }
+
+    @Test
+    public void testIdentical() {
+        int[] a = {1, 2, 3, 1, 2};
+        boolean[] removed = new boolean[a.length];
+        boolean[] inserted = new boolean[a.length];
+        InstructionDiff.diff(a, a.length, a.clone(), a.length, removed, inserted);
+        assertArrayEquals("removed", new boolean[a.length], removed);
+        assertArrayEquals("inserted", new boolean[a.length], inserted);
+    }
+
+    @Test
+    public void testFullyDifferent() {
+        int[] a = {1, 2, 3};
+        int[] b = {4, 5, 6, 7};
+        boolean[] removed = new boolean[a.length];
+        boolean[] inserted = new boolean[b.length];
+        InstructionDiff.diff(a, a.length, b, b.length, removed, inserted);
+        assertArrayEquals("removed", new boolean[] {true, true, true}, removed);
+        assertArrayEquals("inserted", new boolean[] {true, true, true, true}, inserted);
+    }
+
+    @Test
+    public void testOddDelta() {
+        assertDiff(new int[] {1, 2, 3, 4, 5}, new int[] {2, 9, 4, 5});
+        assertDiff(new int[] {1, 2, 3, 4, 5, 6, 7}, new int[] {7, 3, 1, 4});
+        assertDiff(new int[] {1, 3}, new int[] {3, 2, 1, 2, 3, 1});
+    }
+
+    @Test
+    public void testEvenDelta() {
+        assertDiff(new int[] {1, 2, 3, 4}, new int[] {2, 1, 4, 3});
+        assertDiff(new int[] {1, 2, 3, 4, 5, 6}, new int[] {6, 2, 4, 8});
+        assertDiff(new int[] {3, 1}, new int[] {1, 3, 3, 1, 2, 1});
+    }
+
+    @Test
+    public void testOneSidedInsertions() {
+        assertDiff(new int[] {1, 2, 3}, new int[] {1, 9, 2, 9, 9, 3, 9});
+        assertDiff(new int[] {1, 9, 2, 9, 9, 3, 9}, new int[] {1, 2, 3});
+        assertDiff(new int[] {1, 2}, new int[] {0, 0, 0, 1, 2});
+    }
+
+    @Test
+    public void testRandom() {
+        Random rand = new Random(0);
+        for (int i = 0; i < 2000; i++) {
+            // a small alphabet gives many equal elements, which is where diffs go wrong
+            assertDiff(randomArray(rand, rand.nextInt(12), 3), randomArray(rand, rand.nextInt(12), 3));
+        }
+    }
+
+    @Test
+    public void testMiddleSnake() {
+        Random rand = new Random(0);
+        for (int i = 0; i < 2000; i++) {
+            int[] a = randomArray(rand, 1 + rand.nextInt(10), 3);
+            int[] b = randomArray(rand, 1 + rand.nextInt(10), 3);
+            int distance = editDistance(a, 0, a.length, b, 0, b.length);
+            if (distance == 0) {
+                continue;
+            }
+            int max = a.length + b.length + 1;
+            InstructionDiff.Differ differ = new InstructionDiff.Differ(a, b, new int[2 * max + 2], new int[2 * max + 2],
+                    new boolean[a.length], new boolean[b.length]);
+            int[] snake = differ.findMiddleSnake(0, a.length, 0, b.length);
+            String message = Arrays.toString(a) + " " + Arrays.toString(b) + " " + Arrays.toString(snake);
+
+            // a snake is a diagonal run of equal elements
+            assertTrue(message, snake[0] <= snake[2] && snake[2] - snake[0] == snake[3] - snake[1]);
+            for (int k = 0; k < snake[2] - snake[0]; k++) {
+                assertEquals(message, a[snake[0] + k], b[snake[1] + k]);
+            }
+            // which lies on a shortest edit path, with about half of the edits either side of it
+            int before = editDistance(a, 0, snake[0], b, 0, snake[1]);
+            int after = editDistance(a, snake[2], a.length, b, snake[3], b.length);
+            assertEquals(message, distance, before + after);
+            assertTrue(message, before <= (distance + 1) / 2 && after <= (distance + 1) / 2);
+        }
+    }
+
+    @Test
+    public void testDescribeEdits() {
+        List<String> from = Arrays.asList("A", "B", "C", "D", "E", "F");
+        List<String> to = Arrays.asList("X", "A", "Y", "D", "F", "Z", "W");
+        boolean[] removed = {false, true, true, false, true, false};
+        boolean[] inserted = {true, false, true, false, false, true, true};
+        List<String> lines = new ArrayList<>();
+        InstructionDiff.describeEdits(from, to, removed, inserted, lines::add);
+        assertEquals(Arrays.asList(
+                "    + 0: X",
+                "    ~ 1: B -> Y",
+                "    - 2: C",
+                "    - 4: E",
+                "    + 5: Z",
+                "    + 6: W"
+        ), lines);
+    }
+
+    @Test
+    public void testDescribeNoEdits() {
+        List<String> texts = Arrays.asList("A", "B");
+        List<String> lines = new ArrayList<>();
+        InstructionDiff.describeEdits(texts, texts, new boolean[2], new boolean[2], lines::add);
+        assertEquals(new ArrayList<String>(), lines);
+    }
+
+    private static void assertDiff(int[] a, int[] b) {
+        String message = Arrays.toString(a) + " " + Arrays.toString(b);
+        boolean[] removed = new boolean[a.length];
+        boolean[] inserted = new boolean[b.length];
+        InstructionDiff.diff(a, a.length, b, b.length, removed, inserted);
+
+        // what's left on both sides is the same common subsequence, and as long as the longest one
+        List<Integer> keptA = new ArrayList<>();
+        for (int i = 0; i < a.length; i++) {
+            if (!removed[i]) {
+                keptA.add(a[i]);
+            }
+        }
+        List<Integer> keptB = new ArrayList<>();
+        for (int i = 0; i < b.length; i++) {
+            if (!inserted[i]) {
+                keptB.add(b[i]);
+            }
+        }
+        assertEquals(message, keptA, keptB);
+        assertEquals(message, longestCommonSubsequence(a, 0, a.length, b, 0, b.length), keptA.size());
+    }
+
+    private static int editDistance(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd) {
+        return aEnd - aStart + bEnd - bStart - 2 * longestCommonSubsequence(a, aStart, aEnd, b, bStart, bEnd);
+    }
+
+    private static int longestCommonSubsequence(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd) {
+        int[][] lengths = new int[aEnd - aStart + 1][bEnd - bStart + 1];
+        for (int i = aEnd - aStart - 1; i >= 0; i--) {
+            for (int j = bEnd - bStart - 1; j >= 0; j--) {
+                lengths[i][j] = a[aStart + i] == b[bStart + j]
+                        ? lengths[i + 1][j + 1] + 1
+                        : Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+            }
+        }
+        return lengths[0][0];
+    }
+
+    private static int[] randomArray(Random rand, int length, int alphabet) {
+        int[] array = new int[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = rand.nextInt(alphabet);
+        }
+        return array;
+    }
+}